@@ -0,0 +1,110 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.rule.Severity;
+
+/**
+ * Whole analysis against a {@link GitLabApiStub} answering after a fixed latency, posting one inline comment per
+ * issue, with platform or virtual threads calling GitLab. Virtual threads fall back to platform threads before
+ * Java 21, run the scanner JVM on Java 21 or later to compare both.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+// GitLabApiStub sends headers and body of responses without waiting for the client ACK, as in surefire
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class ApiThreadsBenchmark {
+
+    private static final int LATENCY_MILLIS = 20;
+
+    @Param({GitLabPlugin.PLATFORM_THREADS, GitLabPlugin.VIRTUAL_THREADS})
+    public String threads;
+
+    @Param({"8", "256"})
+    public int concurrency;
+
+    @Param({"2000"})
+    public int issues;
+
+    private GitLabApiStub stub;
+
+    private Path baseDir;
+
+    private EndToEndHarness harness;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        stub = new GitLabApiStub().latency(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        stub.addCommit("head", "dev@example.com");
+        baseDir = Files.createTempDirectory("api-threads-benchmark");
+        harness = new EndToEndHarness(stub, baseDir);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < issues; i++) {
+            lines.add("int line" + i + " = " + i + ";");
+        }
+        InputFile inputFile = harness.addFile("head", "src/Main.java", lines);
+        for (int line = 1; line <= issues; line++) {
+            harness.addIssue(inputFile, line, Severity.MAJOR, "Issue " + line);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_THREADS, threads);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_CONCURRENCY, concurrency);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        stub.close();
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int publish() {
+        return harness.run().totalRequests();
+    }
+}
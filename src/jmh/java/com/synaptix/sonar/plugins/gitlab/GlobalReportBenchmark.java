@@ -0,0 +1,78 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.config.Settings;
+
+/**
+ * Feed a {@link GlobalReport} with many issues, half of them not reachable by inline comments, then render it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GlobalReportBenchmark {
+
+    @Param({"1000", "100000"})
+    public int issues;
+
+    private GitLabPluginConfiguration configuration;
+
+    private MarkDownUtils markDownUtils;
+
+    private List<PostJobIssue> generatedIssues;
+
+    @Setup
+    public void setUp() {
+        Settings settings = SyntheticData.settings();
+        configuration = new GitLabPluginConfiguration(settings);
+        markDownUtils = new MarkDownUtils(settings);
+        generatedIssues = SyntheticData.issues(new Random(42), issues);
+    }
+
+    @Benchmark
+    public String updateAndRender() {
+        GlobalReport report = new GlobalReport(configuration, markDownUtils);
+        for (int i = 0; i < generatedIssues.size(); i++) {
+            PostJobIssue issue = generatedIssues.get(i);
+            report.update(issue, "https://gitlab.example.com/group/project/blob/head/" + issue.componentKey()
+                    + "#L" + issue.line(), i % 2 == 0);
+        }
+        return report.toMarkdown() + report.getStatusDescription() + report.getStatus();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.rule.Severity;
+
+/**
+ * Throughput of comment formatting.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkDownUtilsBenchmark {
+
+    private static final String MESSAGE = "Assign this magic number 42 to a well-named constant, and use the constant "
+            + "instead.";
+
+    private static final String RULE_KEY = "squid:S109";
+
+    private static final String URL = "https://gitlab.example.com/group/project/blob/head/src/Foo.java#L42";
+
+    private MarkDownUtils markDownUtils;
+
+    @Setup
+    public void setUp() {
+        markDownUtils = new MarkDownUtils(SyntheticData.settings());
+    }
+
+    @Benchmark
+    public String inlineIssue() {
+        return markDownUtils.inlineIssue(Severity.MAJOR, MESSAGE, RULE_KEY, Optional.empty());
+    }
+
+    @Benchmark
+    public String inlineIssueWithAuthor() {
+        return markDownUtils.inlineIssue(Severity.MAJOR, MESSAGE, RULE_KEY, Optional.of("john.doe"));
+    }
+
+    @Benchmark
+    public String globalIssue() {
+        return markDownUtils.globalIssue(Severity.CRITICAL, MESSAGE, RULE_KEY, null, "module:src/Foo.java");
+    }
+
+    @Benchmark
+    public String globalIssueWithUrl() {
+        return markDownUtils.globalIssue(Severity.CRITICAL, MESSAGE, RULE_KEY, URL, "module:src/Foo.java");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare {@link PatchParser} with the former split and regex based parser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatchParserBenchmark {
+
+    @Param({"1000", "100000"})
+    public int lines;
+
+    private String patch;
+
+    @Setup
+    public void setUp() {
+        patch = SyntheticData.patch(new Random(42), lines);
+    }
+
+    @Benchmark
+    public PatchPositions streamingParser() {
+        return PatchParser.parse(patch);
+    }
+
+    @Benchmark
+    public Set<LegacyParser.Line> legacyParser() {
+        return LegacyParser.getPositionsFromPatch(patch);
+    }
+
+    /**
+     * Parser as implemented before {@link PatchParser}.
+     */
+    static class LegacyParser {
+
+        private static final Pattern PATCH_CHUNK_PATTERN =
+                Pattern.compile("^@@\\s-[0-9]+(?:,[0-9]+)?\\s\\+([0-9]+)(?:,[0-9]+)?\\s@@.*$", Pattern.MULTILINE);
+
+        static Set<Line> getPositionsFromPatch(String patch) {
+            Set<Line> positions = new HashSet<>();
+
+            int currentLine = -1;
+            for (String line : patch.split("\n")) {
+                if (line.startsWith("@")) {
+                    Matcher matcher = PATCH_CHUNK_PATTERN.matcher(line);
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("Unable to parse line:\n\t" + line);
+                    }
+                    currentLine = Integer.parseInt(matcher.group(1));
+                } else if (line.startsWith("+")) {
+                    positions.add(new Line(currentLine, line.replaceFirst("\\+", "")));
+                    currentLine++;
+                } else if (line.startsWith(" ")) {
+                    currentLine++;
+                }
+            }
+
+            return positions;
+        }
+
+        static class Line {
+
+            private final Integer number;
+
+            private final String content;
+
+            Line(Integer number, String content) {
+                this.number = number;
+                this.content = content;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) {
+                    return true;
+                }
+                if (o == null || getClass() != o.getClass()) {
+                    return false;
+                }
+                Line line = (Line) o;
+                return Objects.equals(number, line.number) && Objects.equals(content, line.content);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(number, content);
+            }
+        }
+    }
+}
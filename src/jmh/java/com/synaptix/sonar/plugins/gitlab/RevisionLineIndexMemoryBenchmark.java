@@ -0,0 +1,217 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap retained by the added lines of N revisions touching M files, for {@link RevisionLineIndex} and for the
+ * structures it replaced: a {@code Line(Integer, String)} set per path and revision, then a map of boxed line numbers
+ * to lists of entries. Retained size is the {@code retainedBytes} secondary result, measured once as JMH sums events of
+ * all iterations; run with {@code -prof gc} to also get allocations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class RevisionLineIndexMemoryBenchmark {
+
+    private static final int ADDED_LINES_PER_FILE = 100;
+
+    @Param({"10", "100"})
+    public int revisions;
+
+    @Param({"1000"})
+    public int files;
+
+    private List<FileDiff> diffs;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retained {
+
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        diffs = new ArrayList<>();
+        for (int r = 0; r < revisions; r++) {
+            String revision = String.format("%040x", r);
+            for (int f = 0; f < files; f++) {
+                if (random.nextInt(revisions) < 3) {
+                    int start = random.nextInt(1000) + 1;
+                    String[] contents = new String[ADDED_LINES_PER_FILE];
+                    for (int l = 0; l < contents.length; l++) {
+                        contents[l] = SyntheticData.line(random);
+                    }
+                    diffs.add(new FileDiff(revision, "src/main/java/com/example/generated/File" + f + ".java", start,
+                            contents));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Object lineObjects(Retained retained) {
+        long before = usedHeap();
+        Map<String, Map<String, Set<Line>>> positionsByRevision = new HashMap<>();
+        for (FileDiff diff : diffs) {
+            // Paths and contents are parsed again from each revision's JSON, so they are distinct instances
+            Set<Line> lines = positionsByRevision.computeIfAbsent(diff.revision, k -> new HashMap<>())
+                                                 .computeIfAbsent(new String(diff.path), k -> new HashSet<>());
+            for (int l = 0; l < diff.contents.length; l++) {
+                lines.add(new Line(diff.start + l, new String(diff.contents[l])));
+            }
+        }
+        retained.retainedBytes += usedHeap() - before;
+        return positionsByRevision;
+    }
+
+    @Benchmark
+    public Object boxedIndex(Retained retained) {
+        long before = usedHeap();
+        Map<String, Map<Integer, List<Entry>>> entriesByPath = new HashMap<>();
+        for (FileDiff diff : diffs) {
+            Map<Integer, List<Entry>> entriesByLine = entriesByPath.computeIfAbsent(new String(diff.path),
+                    k -> new HashMap<>());
+            for (int l = 0; l < diff.contents.length; l++) {
+                entriesByLine.computeIfAbsent(diff.start + l, k -> new ArrayList<>(1))
+                             .add(new Entry(diff.revision, ContentHash.of(diff.contents[l])));
+            }
+        }
+        retained.retainedBytes += usedHeap() - before;
+        return entriesByPath;
+    }
+
+    @Benchmark
+    public Object compactIndex(Retained retained) {
+        long before = usedHeap();
+        RevisionLineIndex index = new RevisionLineIndex();
+        for (FileDiff diff : diffs) {
+            PatchPositions positions = new PatchPositions(diff.contents.length);
+            for (int l = 0; l < diff.contents.length; l++) {
+                positions.add(diff.start + l, ContentHash.of(diff.contents[l]));
+            }
+            index.add(diff.revision, new String(diff.path), positions);
+        }
+        // First lookup sorts and trims arrays to their final size
+        index.size();
+        retained.retainedBytes += usedHeap() - before;
+        return index;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class FileDiff {
+
+        private final String revision;
+
+        private final String path;
+
+        private final int start;
+
+        private final String[] contents;
+
+        private FileDiff(String revision, String path, int start, String[] contents) {
+            this.revision = revision;
+            this.path = path;
+            this.start = start;
+            this.contents = contents;
+        }
+    }
+
+    private static class Line {
+
+        private final Integer number;
+
+        private final String content;
+
+        private Line(Integer number, String content) {
+            this.number = number;
+            this.content = content;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Line line = (Line) o;
+            return Objects.equals(number, line.number) && Objects.equals(content, line.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(number, content);
+        }
+    }
+
+    private static class Entry {
+
+        private final String revision;
+
+        private final long contentHash;
+
+        private Entry(String revision, long contentHash) {
+            this.revision = revision;
+            this.contentHash = contentHash;
+        }
+    }
+}
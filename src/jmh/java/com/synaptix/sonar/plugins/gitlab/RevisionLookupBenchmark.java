@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+/**
+ * Line resolution as done by {@link GitLabApiFacade#getRevisionForLine}: read line content through
+ * {@link FileLineCache} then look it up in {@link RevisionLineIndex}, for N revisions touching M files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RevisionLookupBenchmark {
+
+    private static final int LINES_PER_FILE = 300;
+
+    private static final int ADDED_LINES_PER_FILE = 40;
+
+    private static final int ISSUES = 4096;
+
+    private static final int ISSUES_PER_FILE = 8;
+
+    @Param({"10", "100"})
+    public int revisions;
+
+    @Param({"100", "1000"})
+    public int files;
+
+    private Path baseDir;
+
+    private List<DefaultInputFile> inputFiles;
+
+    private RevisionLineIndex index;
+
+    private FileLineCache fileLineCache;
+
+    private DefaultInputFile[] issueFiles;
+
+    private int[] issueLines;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        baseDir = Files.createTempDirectory("revision-lookup");
+        inputFiles = SyntheticData.files(random, baseDir, files, LINES_PER_FILE);
+
+        index = new RevisionLineIndex();
+        for (int r = 0; r < revisions; r++) {
+            String revision = String.format("%040x", r);
+            for (DefaultInputFile inputFile : inputFiles) {
+                if (random.nextInt(revisions) < 3) {
+                    List<String> lines = Files.readAllLines(inputFile.path());
+                    PatchPositions positions = new PatchPositions();
+                    int start = random.nextInt(LINES_PER_FILE - ADDED_LINES_PER_FILE) + 1;
+                    for (int l = start; l < start + ADDED_LINES_PER_FILE; l++) {
+                        positions.add(l, ContentHash.of(lines.get(l - 1)));
+                    }
+                    index.add(revision, inputFile.relativePath(), positions);
+                }
+            }
+        }
+
+        fileLineCache = new FileLineCache(128);
+        issueFiles = new DefaultInputFile[ISSUES];
+        issueLines = new int[ISSUES];
+        for (int i = 0; i < ISSUES; i += ISSUES_PER_FILE) {
+            DefaultInputFile inputFile = inputFiles.get(random.nextInt(files));
+            for (int j = i; j < i + ISSUES_PER_FILE; j++) {
+                issueFiles[j] = inputFile;
+                issueLines[j] = random.nextInt(LINES_PER_FILE) + 1;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ISSUES)
+    public void getRevisionForLine(Blackhole blackhole) {
+        for (int i = 0; i < ISSUES; i++) {
+            String content = fileLineCache.getLine(issueFiles[i], issueLines[i]);
+            Optional<String> revision = index.getRevision(issueFiles[i].relativePath(), issueLines[i], content);
+            blackhole.consume(revision);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.MapSettings;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * Generators of reproducible data shaped like what the plugin gets from GitLab and SonarQube.
+ */
+final class SyntheticData {
+
+    private static final String[] RULES = {"squid:S109", "squid:S103", "squid:S1192", "squid:S00112", "squid:S1166"};
+
+    private SyntheticData() {
+    }
+
+    static Settings settings() {
+        Settings settings = new MapSettings();
+        settings.setProperty("sonar.host.url", "https://sonarqube.example.com");
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 10);
+        settings.setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head");
+        return settings;
+    }
+
+    static String line(Random random) {
+        return "    private final int field" + random.nextInt(100_000) + " = " + random.nextInt() + "; // generated";
+    }
+
+    /**
+     * Generate an unified diff of about the given number of lines, made of chunks mixing context, removed and
+     * added lines.
+     */
+    static String patch(Random random, int lines) {
+        StringBuilder patch = new StringBuilder(lines * 48);
+        int oldLine = 1;
+        int newLine = 1;
+        int written = 0;
+        while (written < lines) {
+            int chunkSize = 10 + random.nextInt(40);
+            patch.append("@@ -").append(oldLine).append(',').append(chunkSize)
+                 .append(" +").append(newLine).append(',').append(chunkSize).append(" @@ class Generated {\n");
+            for (int i = 0; i < chunkSize; i++) {
+                int kind = random.nextInt(4);
+                String content = line(random);
+                if (kind == 0) {
+                    patch.append('-').append(content).append('\n');
+                    oldLine++;
+                } else if (kind == 1) {
+                    patch.append(' ').append(content).append('\n');
+                    oldLine++;
+                    newLine++;
+                } else {
+                    patch.append('+').append(content).append('\n');
+                    newLine++;
+                }
+            }
+            oldLine += 5;
+            newLine += 5;
+            written += chunkSize + 1;
+        }
+        return patch.toString();
+    }
+
+    /**
+     * Write source files of generated lines.
+     *
+     * @return files, relative to given directory as {@code src/File<n>.java}.
+     */
+    static List<DefaultInputFile> files(Random random, Path baseDir, int files, int lines) throws IOException {
+        Files.createDirectories(baseDir.resolve("src"));
+        List<DefaultInputFile> result = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            String relativePath = "src/File" + i + ".java";
+            List<String> content = new ArrayList<>(lines);
+            for (int l = 0; l < lines; l++) {
+                content.add(line(random));
+            }
+            Files.write(baseDir.resolve(relativePath), content, StandardCharsets.UTF_8);
+            result.add(new DefaultInputFile("module", relativePath)
+                    .setModuleBaseDir(baseDir)
+                    .setCharset(StandardCharsets.UTF_8)
+                    .setLines(lines));
+        }
+        return result;
+    }
+
+    static List<PostJobIssue> issues(Random random, int count) {
+        Severity[] severities = Severity.values();
+        List<PostJobIssue> issues = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String rule = RULES[random.nextInt(RULES.length)];
+            issues.add(new Issue("issue-" + i, RuleKey.parse(rule), "module:src/File" + random.nextInt(1000) + ".java",
+                    null, 1 + random.nextInt(500), "Generated message for " + rule + " #" + i,
+                    severities[random.nextInt(severities.length)]));
+        }
+        return issues;
+    }
+
+    static class Issue implements PostJobIssue {
+
+        private final String key;
+
+        private final RuleKey ruleKey;
+
+        private final String componentKey;
+
+        private final InputComponent inputComponent;
+
+        private final Integer line;
+
+        private final String message;
+
+        private final Severity severity;
+
+        Issue(String key, RuleKey ruleKey, String componentKey, InputComponent inputComponent, Integer line,
+                String message, Severity severity) {
+            this.key = key;
+            this.ruleKey = ruleKey;
+            this.componentKey = componentKey;
+            this.inputComponent = inputComponent;
+            this.line = line;
+            this.message = message;
+            this.severity = severity;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public RuleKey ruleKey() {
+            return ruleKey;
+        }
+
+        @Override
+        public String componentKey() {
+            return componentKey;
+        }
+
+        @Override
+        public InputComponent inputComponent() {
+            return inputComponent;
+        }
+
+        @Override
+        public Integer line() {
+            return line;
+        }
+
+        @Override
+        public String message() {
+            return message;
+        }
+
+        @Override
+        public Severity severity() {
+            return severity;
+        }
+
+        @Override
+        public boolean isNew() {
+            return true;
+        }
+    }
+}
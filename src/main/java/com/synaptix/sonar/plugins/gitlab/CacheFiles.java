@@ -0,0 +1,122 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * File operations of disk caches whose directory may be shared by analyses running in parallel, see
+ * {@link PatchPositionsCache} and {@link ETagCache}.
+ */
+final class CacheFiles {
+
+    private static final Logger logger = Loggers.get(CacheFiles.class);
+
+    private CacheFiles() {
+    }
+
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Refresh last modified time, used as last access time for eviction.
+     */
+    static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // entry evicted meanwhile, or read-only cache
+        }
+    }
+
+    /**
+     * Delete least recently used entries until the cache fits its maximum size. Entries deleted meanwhile by
+     * another analysis are ignored.
+     *
+     * @param extension extension of the entries of the cache, other files are ignored.
+     */
+    static void evict(Path directory, String extension, long maxSizeBytes) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + extension)) {
+            for (Path path : stream) {
+                try {
+                    Entry entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                    entries.add(entry);
+                    totalSize += entry.size;
+                } catch (NoSuchFileException e) {
+                    // deleted by another analysis
+                }
+            }
+        }
+        if (totalSize <= maxSizeBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(e -> e.lastAccess));
+        for (Entry entry : entries) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            deleteQuietly(entry.path);
+            totalSize -= entry.size;
+        }
+    }
+
+    static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.debug("Unable to delete {}: {}", path, e.toString());
+        }
+    }
+
+    private static class Entry {
+
+        private final Path path;
+
+        private final long size;
+
+        private final long lastAccess;
+
+        private Entry(Path path, long size, long lastAccess) {
+            this.path = path;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
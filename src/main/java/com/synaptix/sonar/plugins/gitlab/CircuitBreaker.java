@@ -0,0 +1,65 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stop calling GitLab for a while once it failed too many times in a row, instead of piling up requests and
+ * retries on an unavailable instance. After the open period, calls are let through again and the first failure
+ * opens the circuit again.
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private final LongSupplier nanoClock;
+
+    private int consecutiveFailures;
+
+    private long openUntil;
+
+    CircuitBreaker(int failureThreshold, long openNanos, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    synchronized boolean allowRequest() {
+        return consecutiveFailures < failureThreshold || nanoClock.getAsLong() - openUntil >= 0;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (consecutiveFailures >= failureThreshold) {
+            openUntil = nanoClock.getAsLong() + openNanos;
+        }
+    }
+
+    synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.gitlab.api.models.CommitComment;
+
+/**
+ * Hash index of inline comments already present on commits, keyed by revision, path, line and note digest.
+ * <p>
+ * Global comments (without path or line) are not indexed. Index is safe for concurrent use.
+ */
+class CommitCommentIndex {
+
+    private final Set<Key> keys = ConcurrentHashMap.newKeySet();
+
+    void add(String revision, CommitComment comment) {
+        Integer line = parseLine(comment.getLine());
+        if (comment.getPath() != null && line != null && comment.getNote() != null) {
+            add(revision, comment.getPath(), line, comment.getNote());
+        }
+    }
+
+    /**
+     * @return {@code false} if the same comment is already indexed.
+     */
+    boolean add(String revision, String path, int line, String note) {
+        return keys.add(new Key(revision, path, line, ContentHash.of(note)));
+    }
+
+    void remove(String revision, String path, int line, String note) {
+        keys.remove(new Key(revision, path, line, ContentHash.of(note)));
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    private static Integer parseLine(@Nullable String line) {
+        if (line == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(line.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Key {
+
+        private final String revision;
+
+        private final String path;
+
+        private final int line;
+
+        private final long noteHash;
+
+        private Key(String revision, String path, int line, long noteHash) {
+            this.revision = revision;
+            this.path = path;
+            this.line = line;
+            this.noteHash = noteHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return line == key.line
+                    && noteHash == key.noteHash
+                    && revision.equals(key.revision)
+                    && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = revision.hashCode();
+            result = 31 * result + path.hashCode();
+            result = 31 * result + line;
+            result = 31 * result + Long.hashCode(noteHash);
+            return result;
+        }
+    }
+}
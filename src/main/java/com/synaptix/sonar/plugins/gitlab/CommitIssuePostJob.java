@@ -19,7 +19,13 @@
  */
 package com.synaptix.sonar.plugins.gitlab;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.StreamSupport;
 
 import javax.annotation.Nonnull;
@@ -59,33 +65,32 @@ public class CommitIssuePostJob implements PostJob {
 
     @Override
     public void execute(@Nonnull PostJobContext context) {
-        GlobalReport report = new GlobalReport(configuration, markDownUtils);
+        GitLabMetrics metrics = gitLabApiFacade.metrics();
+        long start = GitLabMetrics.start();
+        try {
+            publish(context, metrics);
+        } finally {
+            metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "total", start);
+            gitLabApiFacade.logStatistics();
+        }
+    }
 
-        StreamSupport
-                .stream(context.issues().spliterator(), false)
-                .filter(PostJobIssue::isNew)
-                .filter(i -> {
-                    InputComponent inputComponent = i.inputComponent();
-                    return inputComponent != null
-                            && inputComponent.isFile()
-                            && gitLabApiFacade.hasFile((InputFile) inputComponent);
-                })
-                .forEach(i -> {
-                    InputFile inputFile = (InputFile) i.inputComponent();
-                    Optional<String> revision = gitLabApiFacade.getRevisionForLine(inputFile, i.line());
-                    revision.ifPresent(r -> createInlineComment(r, inputFile, i));
-                    if (!revision.isPresent()) {
-                        logger.debug("Unable to find line {} on file {} in revisions {}",
-                                i.line(), inputFile, configuration.commitHashes());
-                    }
-                    report.update(i, gitLabApiFacade.getGitLabUrl(configuration.commitHashes().get(0), inputFile,
-                            i.line()), revision.isPresent());
-                });
+    private void publish(PostJobContext context, GitLabMetrics metrics) {
+        GlobalReport report = new GlobalReport(configuration, markDownUtils);
+        // Only closed before completion on failure, then comments not posted yet are abandoned
+        try (InlineCommentPublisher publisher = new InlineCommentPublisher(gitLabApiFacade,
+                configuration.apiConcurrency(), configuration.apiThreads())) {
+            publishInlineComments(context, report, publisher, metrics);
+        }
 
+        long start = GitLabMetrics.start();
         if (!configuration.disableGlobalComment() && report.hasNewIssues() || configuration.commentNoIssue()) {
             gitLabApiFacade.createGlobalComment(report.toMarkdown());
         }
+        gitLabApiFacade.publishReview();
+        metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "global comment", start);
 
+        start = GitLabMetrics.start();
         String status = report.getStatus();
         String statusDescription = report.getStatusDescription();
         if (configuration.statusNotificationMode().equals("status-code")) {
@@ -99,23 +104,133 @@ public class CommitIssuePostJob implements PostJob {
             gitLabApiFacade.createCommitStatus(configuration.commitHashes().get(0), status,
                     report.getStatusDescription());
         }
+        metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "commit status", start);
     }
 
-    private void createInlineComment(String revision, InputFile inputFile, PostJobIssue issue) {
+    /**
+     * Find the revision of every issue, report it, and submit inline comments of the issues found in a revision.
+     */
+    private void publishInlineComments(PostJobContext context, GlobalReport report, InlineCommentPublisher publisher,
+            GitLabMetrics metrics) {
+        long start = GitLabMetrics.start();
+        InlineCommentAggregator aggregator = GitLabPlugin.NO_AGGREGATION.equals(configuration.commentAggregation())
+                ? null
+                : new InlineCommentAggregator(configuration.commentAggregation(),
+                        configuration.commentAggregationWindow());
+
+        List<PostJobIssue> issues = StreamSupport
+                .stream(context.issues().spliterator(), false)
+                .filter(PostJobIssue::isNew)
+                .filter(i -> {
+                    InputComponent inputComponent = i.inputComponent();
+                    return inputComponent != null
+                            && inputComponent.isFile()
+                            && gitLabApiFacade.hasFile((InputFile) inputComponent);
+                })
+                .collect(Collectors.toList());
+
+        // revision of every issue to aggregate, added to the aggregator in issue order once all are resolved
+        String[] aggregatedRevisions = aggregator != null ? new String[issues.size()] : null;
+        int parallelism = configuration.issueParallelism();
+        forEachIssue(parallelism, issues.size(), index -> {
+            PostJobIssue i = issues.get(index);
+            InputFile inputFile = (InputFile) i.inputComponent();
+            Optional<String> revision = gitLabApiFacade.getRevisionForLine(inputFile, i.line());
+            if (revision.isPresent() && gitLabApiFacade.isPublished(revision.get())) {
+                logger.debug("Issue on line {} of file {} already published with revision {}",
+                        i.line(), inputFile, revision.get());
+                report.update(index, i, null, true);
+                return;
+            }
+            revision.ifPresent(r -> {
+                if (aggregatedRevisions != null) {
+                    aggregatedRevisions[index] = r;
+                } else {
+                    createInlineComment(publisher, r, inputFile, i);
+                }
+            });
+            if (!revision.isPresent()) {
+                logger.debug("Unable to find line {} on file {} in revisions {}",
+                        i.line(), inputFile, configuration.commitHashes());
+            }
+            String gitLabUrl = revision.isPresent() ? null
+                    : gitLabApiFacade.getGitLabUrl(configuration.commitHashes().get(0), inputFile, i.line());
+            report.update(index, i, gitLabUrl, revision.isPresent());
+        });
+        metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "issues", start);
+
+        if (aggregator != null) {
+            start = GitLabMetrics.start();
+            for (int index = 0; index < issues.size(); index++) {
+                if (aggregatedRevisions[index] != null) {
+                    PostJobIssue i = issues.get(index);
+                    aggregator.add(aggregatedRevisions[index], (InputFile) i.inputComponent(), i);
+                }
+            }
+            List<InlineCommentAggregator.Group> groups = aggregator.groups();
+            forEachIssue(parallelism, groups.size(), index -> createInlineComment(publisher, groups.get(index)));
+            metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "aggregation", start);
+        }
+        start = GitLabMetrics.start();
+        int published = publisher.awaitCompletion();
+        metrics.stop(GitLabMetrics.POST_JOB_PREFIX + "inline comments", start);
+        logger.debug("{} inline comments created", published);
+    }
+
+    /**
+     * Run an action for every index, sequentially or on a dedicated fork join pool. In parallel, actions must only
+     * rely on the index for ordering.
+     */
+    private static void forEachIssue(int parallelism, int size, IntConsumer action) {
+        if (parallelism <= 1) {
+            IntStream.range(0, size).forEach(action);
+            return;
+        }
+        ForkJoinPool pool = GitLabExecutors.newForkJoinPool(parallelism, "gitlab-issues");
+        try {
+            pool.submit(() -> IntStream.range(0, size).parallel().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing issues", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to process issues", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void createInlineComment(InlineCommentPublisher publisher, String revision, InputFile inputFile,
+            PostJobIssue issue) {
         logger.debug("Create inline comment for rule key {} on file {} and line {} with revision {}", issue.ruleKey(),
                 inputFile, issue.line(), revision);
-        Optional<String> username = configuration.pingUser() ? gitLabApiFacade.getUsernameForRevision(revision)
-                : Optional.empty();
         String body = markDownUtils.inlineIssue(issue.severity(), issue.message(), issue.ruleKey().toString(),
-                username);
-
-        boolean exists = gitLabApiFacade.getCommitCommentsForFile(revision, inputFile)
-                .stream()
-                .anyMatch(c -> c.getLine().equals(Integer.toString(issue.line())) && c.getNote().equals(body));
-        logger.debug("Inline comment already present on revision {} for file {} on line {}",
-                revision, inputFile, issue.line());
-        if (!exists) {
-            gitLabApiFacade.createInlineComment(revision, inputFile, issue.line(), body);
+                getUsername(revision));
+        submitInlineComment(publisher, revision, inputFile, issue.line(), body);
+    }
+
+    private void createInlineComment(InlineCommentPublisher publisher, InlineCommentAggregator.Group group) {
+        logger.debug("Create inline comment for {} issues on file {} and line {} with revision {}",
+                group.issues().size(), group.inputFile(), group.line(), group.revision());
+        String body = markDownUtils.inlineIssues(group.issues(), getUsername(group.revision()),
+                group.spansSeveralLines());
+        submitInlineComment(publisher, group.revision(), group.inputFile(), group.line(), body);
+    }
+
+    private Optional<String> getUsername(String revision) {
+        return configuration.pingUser() ? gitLabApiFacade.getUsernameForRevision(revision) : Optional.empty();
+    }
+
+    private void submitInlineComment(InlineCommentPublisher publisher, String revision, InputFile inputFile, int line,
+            String body) {
+        boolean reserved = gitLabApiFacade.reserveInlineComment(revision, inputFile, line, body);
+        if (!reserved) {
+            logger.debug("Inline comment already present on revision {} for file {} on line {}",
+                    revision, inputFile, line);
+        } else {
+            publisher.submit(revision, inputFile, line, body);
         }
     }
 
@@ -22,6 +22,7 @@ package com.synaptix.sonar.plugins.gitlab;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
 import org.sonar.api.utils.MessageException;
 
 /**
@@ -51,7 +52,8 @@ public class CommitProjectBuilder extends ProjectBuilder {
                     "Please set '" + CoreProperties.ANALYSIS_MODE + "'.");
         }
 
-        gitLabApiFacade.init(context.projectReactor().getRoot().getBaseDir());
+        ProjectDefinition root = context.projectReactor().getRoot();
+        gitLabApiFacade.init(root.getBaseDir(), root.getWorkDir());
         if (configuration.statusNotificationMode().equals("commit-status")) {
             gitLabApiFacade.createCommitStatus(configuration.commitHashes().get(0), configuration.getBuildInitState(),
                     "SonarQube analysis in progress");
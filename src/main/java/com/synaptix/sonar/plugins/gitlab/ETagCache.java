@@ -0,0 +1,163 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Disk cache of GitLab API responses and their ETag, one file per url and token, so that following analyses send
+ * conditional requests and reuse the cached body when GitLab answers {@code 304 Not Modified}. Least recently used
+ * entries are evicted once the cache exceeds its maximum size.
+ * <p>
+ * Only the raw body is kept: a {@code 304} saves the transfer, not the parsing, as the body is parsed again like a
+ * full response. Parsed commit diffs are kept by {@link PatchPositionsCache}, which skips both the request and the
+ * parsing of revisions already seen, so this cache mostly serves commit comments.
+ * <p>
+ * The cache directory may be shared by analyses running in parallel: entries are written to a temporary file
+ * then atomically moved, and any unreadable entry is treated as a miss. Entries are named after a SHA-256 of url
+ * and token, so a token never reads responses cached for another one.
+ * <p>
+ * File format: magic, version, ETag, then the gzip compressed body.
+ */
+class ETagCache {
+
+    private static final Logger logger = Loggers.get(ETagCache.class);
+
+    private static final int MAGIC = 0x474c4554;
+
+    private static final int VERSION = 1;
+
+    private static final String EXTENSION = ".etag";
+
+    private final Path directory;
+
+    private final long maxSizeBytes;
+
+    ETagCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @return cached response, or {@code null} if not cached.
+     */
+    @CheckForNull
+    Entry get(String url, @Nullable String token) {
+        Path file = file(url, token);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+            String etag = input.readUTF();
+            Entry entry = new Entry(etag, GitLabTransports.readBody(input, "gzip"));
+            CacheFiles.touch(file);
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignore unreadable cache entry {}: {}", file, e.toString());
+            CacheFiles.deleteQuietly(file);
+            return null;
+        }
+    }
+
+    void put(String url, @Nullable String token, String etag, byte[] body) {
+        Path file = file(url, token);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(etag);
+                try (OutputStream compressed = new GZIPOutputStream(output)) {
+                    compressed.write(body);
+                }
+            }
+            CacheFiles.move(temp, file);
+            temp = null;
+            CacheFiles.evict(directory, EXTENSION, maxSizeBytes);
+        } catch (IOException e) {
+            logger.debug("Unable to write cache entry {}: {}", file, e.toString());
+        } finally {
+            if (temp != null) {
+                CacheFiles.deleteQuietly(temp);
+            }
+        }
+    }
+
+    private Path file(String url, @Nullable String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(url.getBytes(StandardCharsets.UTF_8));
+            if (token != null) {
+                digest.update((byte) '\n');
+                digest.update(token.getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(EXTENSION).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static class Entry {
+
+        private final String etag;
+
+        private final byte[] body;
+
+        private Entry(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+        }
+
+        String etag() {
+            return etag;
+        }
+
+        byte[] body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Bounded LRU cache of file lines, so a file holding many issues is read and decoded only once.
+ */
+class FileLineCache {
+
+    private static final Logger logger = Loggers.get(FileLineCache.class);
+
+    private final Map<Path, List<String>> linesByFile;
+
+    private long hits;
+
+    private long misses;
+
+    FileLineCache(int maxFiles) {
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("maxFiles must be greater than 0");
+        }
+        this.linesByFile = new LinkedHashMap<Path, List<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, List<String>> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    /**
+     * Get content of a line, reading the file with its own charset on cache miss.
+     *
+     * @param inputFile  file to read.
+     * @param lineNumber line number, starting at 1.
+     * @return line content without line terminator, or {@code null} if file cannot be read or line does not exist.
+     */
+    @CheckForNull
+    String getLine(InputFile inputFile, int lineNumber) {
+        List<String> lines = getLines(inputFile);
+        if (lineNumber < 1 || lineNumber > lines.size()) {
+            return null;
+        }
+        return lines.get(lineNumber - 1);
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    private List<String> getLines(InputFile inputFile) {
+        Path path = inputFile.path();
+        synchronized (this) {
+            List<String> lines = linesByFile.get(path);
+            if (lines != null) {
+                hits++;
+                return lines;
+            }
+            misses++;
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, inputFile.charset());
+        } catch (IOException e) {
+            logger.debug("Unable to read file {}", path, e);
+            lines = Collections.emptyList();
+        }
+        synchronized (this) {
+            linesByFile.put(path, lines);
+        }
+        return lines;
+    }
+}
@@ -20,28 +20,41 @@
 package com.synaptix.sonar.plugins.gitlab;
 
 import static java.util.stream.Collectors.toMap;
-import static java.util.stream.Collectors.toSet;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
-import org.gitlab.api.GitlabAPI;
-import org.gitlab.api.models.CommitComment;
+import org.gitlab.api.Pagination;
 import org.gitlab.api.models.GitlabCommit;
+import org.gitlab.api.models.GitlabCommitComparison;
 import org.gitlab.api.models.GitlabCommitDiff;
+import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabProject;
 import org.gitlab.api.models.GitlabUser;
 import org.sonar.api.batch.InstantiationStrategy;
@@ -61,23 +74,90 @@ public class GitLabApiFacade {
 
     private static final Logger logger = Loggers.get(GitLabApiFacade.class);
 
-    private static final Pattern PATCH_CHUNK_PATTERN =
-            Pattern.compile("^@@\\s-[0-9]+(?:,[0-9]+)?\\s\\+([0-9]+)(?:,[0-9]+)?\\s@@.*$", Pattern.MULTILINE);
-
     private static final String COMMIT_CONTEXT = "sonarqube";
 
+    private static final int FILE_LINE_CACHE_SIZE = 128;
+
+    private static final String DIFF_CACHE_DIRECTORY = "gitlab-diff-cache";
+
+    private static final String ETAG_CACHE_DIRECTORY = "gitlab-etag-cache";
+
+    private static final String PROJECT_CACHE_FILE = "gitlab-projects.properties";
+
+    private static final String METRICS_FILE = "gitlab-metrics.json";
+
+    private static final PathResolver PATH_RESOLVER = new PathResolver();
+
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    /**
+     * Final states of the commit status set by this plugin: the analysis of the revision was fully published.
+     */
+    private static final Set<String> PUBLISHED_STATES = new HashSet<>(Arrays.asList("success", "failed"));
+
     private final GitLabPluginConfiguration configuration;
 
-    private GitlabAPI gitLabApi;
+    private final GitLabMetrics metrics = new GitLabMetrics();
+
+    private File workDir;
+
+    private GitLabTransport transport;
+
+    private GitLabRestApi gitLabApi;
+
+    private GitLabApiGuard guard;
+
+    private MergeRequestReview mergeRequestReview;
+
+    /**
+     * In merge-request-review comment mode, path in the base of the merge request of every renamed file, by path.
+     */
+    private Map<String, String> basePaths = Collections.emptyMap();
+
+    private PatchPositionsCache patchPositionsCache;
+
+    private ETagCache etagCache;
+
+    private Path projectCacheFile;
 
     private GitlabProject gitLabProject;
 
-    private Map<String, List<CommitComment>> commitCommentPerRevision;
+    private final CommitCommentIndex commitCommentIndex = new CommitCommentIndex();
+
+    private RevisionLineIndex revisionLineIndex;
+
+    private List<String> revisions;
+
+    /**
+     * In compare mode, {@link #revisionLineIndex} only holds the combined diff, attributed to the newest revision.
+     */
+    private boolean compareDiff;
 
-    private Map<String, Map<String, Set<Line>>> patchPositionByFile;
+    /**
+     * Commit diffs fetched on demand in compare mode, each one fetched once even when asked by several threads.
+     */
+    private final Map<String, FutureTask<Map<String, PatchPositions>>> commitPositions = new ConcurrentHashMap<>();
 
     private File gitBaseDir;
 
+    /**
+     * Relative path of every file of the analysis, shared with {@link #changedPaths} when the file changed.
+     */
+    private final Map<InputPath, String> relativePaths = new ConcurrentHashMap<>();
+
+    /**
+     * Every path added or modified by the revisions, each one mapped to itself to share a single instance.
+     */
+    private Map<String, String> changedPaths = Collections.emptyMap();
+
+    private final FileLineCache fileLineCache = new FileLineCache(FILE_LINE_CACHE_SIZE);
+
+    private final Map<String, FutureTask<Optional<String>>> authorEmailByRevision = new ConcurrentHashMap<>();
+
+    private final Map<String, FutureTask<Optional<String>>> usernameByEmail = new ConcurrentHashMap<>();
+
+    private final Set<String> publishedRevisions = new HashSet<>();
+
     public GitLabApiFacade(GitLabPluginConfiguration configuration) {
         this.configuration = configuration;
     }
@@ -86,9 +166,11 @@ public class GitLabApiFacade {
      * Init GitLab connection and any necessary information that will be used during analysis.
      *
      * @param projectBaseDir project base directory.
+     * @param workDir        analysis working directory, default location of the diff cache.
      * @throws IllegalStateException if unable to find git base dir or any errors when fetching GitLab API.
      */
-    void init(File projectBaseDir) {
+    void init(File projectBaseDir, @Nullable File workDir) {
+        long start = GitLabMetrics.start();
         gitBaseDir = findGitBaseDir(projectBaseDir);
         if (gitBaseDir == null) {
             throw new IllegalStateException(
@@ -96,16 +178,66 @@ public class GitLabApiFacade {
                             projectBaseDir));
         }
 
-        gitLabApi = GitlabAPI.connect(configuration.url(), configuration.userToken())
-                             .ignoreCertificateErrors(configuration.ignoreSSL());
+        transport = GitLabTransports.create(configuration.apiTransport(), configuration.ignoreSSL(),
+                (int) TimeUnit.SECONDS.toMillis(configuration.apiConnectTimeout()),
+                (int) TimeUnit.SECONDS.toMillis(configuration.apiTimeout()));
+        etagCache = createETagCache(workDir);
+        guard = new GitLabApiGuard(configuration.apiMaxRetries(), configuration.apiRateLimit(), metrics);
+        // Draft notes of merge-request-review mode only exist in API v4
+        GitLabRestClient client = new GitLabRestClient(configuration.url(), configuration.isMergeRequestReview()
+                ? GitLabRestClient.API_V4 : GitLabRestClient.API_V3, configuration.userToken(), transport, etagCache,
+                metrics, guard::onRateLimit);
+        gitLabApi = new GitLabRestApi(client);
+        this.workDir = workDir;
+        patchPositionsCache = createPatchPositionsCache(workDir);
+        File cacheDir = configuration.diffCacheDir() != null ? new File(configuration.diffCacheDir()) : workDir;
+        projectCacheFile = cacheDir != null ? cacheDir.toPath().resolve(PROJECT_CACHE_FILE) : null;
+        ExecutorService executor = GitLabExecutors.newApiPool(configuration.apiThreads(),
+                configuration.apiConcurrency(), "gitlab-api");
         try {
             gitLabProject = getGitLabProject();
-            commitCommentPerRevision = getCommitCommentsPerRevision(configuration.commitHashes());
-            patchPositionByFile = getPatchPositionsToLineMapping(configuration.commitHashes());
-            logger.debug("patch position by file and hashes {}", patchPositionByFile);
+            revisions = configuration.commitHashes();
+            List<String> newRevisions = findNewRevisions(executor, revisions);
+            Future<Integer> reviewNotes = null;
+            RevisionCalls<Integer> comments = submitPerRevision(executor, Collections.emptyList(),
+                    this::indexCommitComments);
+            if (configuration.isMergeRequestReview()) {
+                mergeRequestReview = createMergeRequestReview(client);
+                reviewNotes = executor.submit(() -> indexMergeRequestNotes(revisions));
+            } else {
+                comments = submitPerRevision(executor, newRevisions, this::indexCommitComments);
+            }
+            compareDiff = configuration.isCompareDiff();
+            RevisionCalls<Map<String, PatchPositions>> positions = submitPerRevision(executor,
+                    compareDiff ? revisions.subList(0, 1) : revisions,
+                    compareDiff ? r -> getComparePositions() : this::getPatchPositionsToLineMapping);
+            RevisionCalls<Optional<String>> usernames = submitPerRevision(executor,
+                    configuration.pingUser() ? newRevisions : Collections.emptyList(), this::getUsernameForRevision);
+            long deadline = deadline();
+            logger.debug("Existing comments per hashes {}", awaitPerRevision(comments, deadline));
+            if (reviewNotes != null) {
+                logger.debug("Existing merge request notes {}", awaitReviewNotes(reviewNotes, deadline));
+            }
+            Map<String, Map<String, PatchPositions>> positionsByHash = awaitPerRevision(positions, deadline);
+            if (compareDiff && positionsByHash.get(revisions.get(0)) == null) {
+                compareDiff = false;
+                positionsByHash = awaitPerRevision(submitPerRevision(executor, revisions,
+                        this::getPatchPositionsToLineMapping), deadline());
+            }
+            revisionLineIndex = buildRevisionLineIndex(compareDiff ? revisions.subList(0, 1) : revisions,
+                    positionsByHash);
+            if (mergeRequestReview != null) {
+                basePaths = findBasePaths(compareDiff ? revisions.subList(0, 1) : revisions, positionsByHash);
+            }
+            changedPaths = revisionLineIndex.paths().stream().collect(toMap(p -> p, p -> p));
+            logger.debug("{} added lines indexed for hashes {}", revisionLineIndex.size(), revisions);
+            logger.debug("Authors of hashes {}", awaitPerRevision(usernames, deadline));
         } catch (IOException e) {
             logger.error("Unable to perform GitLab WS operation", e);
             throw new IllegalStateException("Unable to perform GitLab WS operation", e);
+        } finally {
+            executor.shutdownNow();
+            metrics.stop(GitLabMetrics.INIT, start);
         }
     }
 
@@ -114,59 +246,57 @@ public class GitLabApiFacade {
         try {
             if (GitLabPlugin.BUILD_INIT_STATES.contains(status)) {
                 logger.info("Skipping commit status update since there are builds for this commit ({}) " +
-                        "that will fail for consecutive update to this state ({}).", configuration.commitHashes(), status);
+                        "that will fail for consecutive update to this state ({}).", configuration.commitHashes(),
+                        status);
             } else {
-                gitLabApi.createCommitStatus(gitLabProject, revision, status, configuration.referenceName(),
-                        COMMIT_CONTEXT, null, statusDescription);
+                guard.call("commit status update", false, () -> gitLabApi.createCommitStatus(gitLabProject.getId(),
+                        revision, status, configuration.referenceName(), COMMIT_CONTEXT, null, statusDescription));
             }
         } catch (IOException e) {
             String msg = String.format("Unable to update commit status. [status=%s, project_id=%s, sha=%s, ref=%s, " +
                     "context=%s, ignore_ssl=%s, build_init_state=%s, description=%s]", status, gitLabProject.getId(),
                     revision, configuration.referenceName(), COMMIT_CONTEXT,
-                    gitLabApi.isIgnoreCertificateErrors(), configuration.getBuildInitState(), statusDescription);
+                    configuration.ignoreSSL(), configuration.getBuildInitState(), statusDescription);
             throw new IllegalStateException(msg, e);
         }
     }
 
-
-    Set<CommitComment> getCommitCommentsForFile(String revision, InputFile inputFile) {
+    /**
+     * Reserve an inline comment before posting it with {@link #createInlineComment}, so that the same comment on the
+     * given revision, file and line is posted once even when submitted twice concurrently.
+     *
+     * @return {@code false} if the same inline comment is already present or reserved.
+     */
+    boolean reserveInlineComment(String revision, InputFile inputFile, int line, String body) {
         assertNotNull(revision, "revision must not be null");
         assertNotNull(inputFile, "inputFile must not be null");
 
-        String path = getPath(inputFile);
+        return commitCommentIndex.add(revision, getPath(inputFile), line, body);
+    }
 
-        List<CommitComment> value = commitCommentPerRevision.get(revision);
-        return Optional.ofNullable(value)
-                       .orElse(Collections.emptyList())
-                       .stream()
-                       .filter(Objects::nonNull)
-                       .filter(c -> path.equals(c.getPath()))
-                       .collect(toSet());
+    /**
+     * Check if the analysis of the given revision was already published by a previous run, see
+     * {@link GitLabPlugin#GITLAB_INCREMENTAL}.
+     */
+    boolean isPublished(String revision) {
+        return publishedRevisions.contains(revision);
     }
 
     boolean hasFile(InputFile inputFile) {
-        return patchPositionByFile.values().stream().anyMatch(e -> e.containsKey(getPath(inputFile)));
+        return changedPaths.containsKey(getPath(inputFile));
     }
 
     Optional<String> getRevisionForLine(InputFile inputFile, int lineNumber) {
-        String value = null;
-        try {
-            value = Files.readAllLines(inputFile.path()).get(lineNumber - 1);
-        } catch (IOException e) {
-            // do nothing
-        }
-        Line line = new Line(lineNumber, value);
+        long start = GitLabMetrics.start();
+        String content = fileLineCache.getLine(inputFile, lineNumber);
         String path = getPath(inputFile);
-        logger.debug("try to find revision for given file {} = {} on {}", inputFile, path, line);
-        return patchPositionByFile
-                .entrySet()
-                .stream()
-                .filter(e -> e.getValue().entrySet().stream()
-                              .peek(v -> logger.debug("{} -> {} equals? {}", v.getKey(), v.getValue(), line))
-                              .anyMatch(v -> v.getKey().equals(path) && v.getValue().contains(line)))
-                .peek(e -> logger.debug("matches {}", e))
-                .map(Map.Entry::getKey)
-                .findFirst();
+        Optional<String> revision = revisionLineIndex.getRevision(path, lineNumber, content);
+        if (compareDiff && revision.isPresent() && mergeRequestReview == null) {
+            revision = attributeRevision(path, lineNumber, content);
+        }
+        metrics.stop(GitLabMetrics.LINE_RESOLUTION, start);
+        logger.debug("revision for given file {} = {} on line {}: {}", inputFile, path, lineNumber, revision);
+        return revision;
     }
 
     String getGitLabUrl(String revision, InputFile inputFile, Integer line) {
@@ -183,40 +313,106 @@ public class GitLabApiFacade {
     void createGlobalComment(String comment) {
         try {
             String revision = configuration.commitHashes().get(0);
-            gitLabApi.createCommitComment(gitLabProject.getId(), revision, comment, null, null, null);
+            if (mergeRequestReview != null) {
+                mergeRequestReview.addDraft(comment);
+            } else {
+                guard.call("global comment", false, () -> gitLabApi.createCommitComment(gitLabProject.getId(),
+                        revision, comment, null, null, null));
+            }
         } catch (IOException e) {
             throw new IllegalStateException(String.format("Unable to comment the commit (%s)", comment), e);
         }
     }
 
+    /**
+     * Post an inline comment reserved by {@link #reserveInlineComment}, the reservation is released on failure.
+     */
     void createInlineComment(String revision, InputFile inputFile, Integer line, String body) {
         String path = getPath(inputFile);
         try {
             logger.debug("gitlab-api create commit comment with parameters: id={}, sha={}, note={}, path={}, line={}",
                     gitLabProject.getId(), revision, body, path, line.toString());
-            gitLabApi.createCommitComment(gitLabProject.getId(), revision, body, path, line.toString(),
-                    "new");
+            if (mergeRequestReview != null) {
+                mergeRequestReview.addDraft(basePaths.getOrDefault(path, path), path, line, body);
+            } else {
+                guard.call("inline comment", false, () -> gitLabApi.createCommitComment(gitLabProject.getId(),
+                        revision, body, path, line.toString(), "new"));
+            }
         } catch (IOException e) {
+            commitCommentIndex.remove(revision, path, line, body);
             throw new IllegalStateException("Unable to create or update review comment in file " + path
                     + " at line " + line, e);
         }
     }
 
-    Optional<String> getUsernameForRevision(String revision) {
+    /**
+     * Publish at once comments drafted in merge-request-review comment mode, does nothing in commit-comment mode.
+     */
+    void publishReview() {
+        if (mergeRequestReview == null) {
+            return;
+        }
         try {
-            GitlabCommit commit = gitLabApi.getCommit(gitLabProject.getId(), revision);
-            List<GitlabUser> users = gitLabApi.findUsers(commit.getAuthorEmail());
-            return users.stream()
-                        .filter(x -> commit.getAuthorEmail().equals(x.getEmail()))
-                        .map(GitlabUser::getUsername)
-                        .findFirst();
+            int published = mergeRequestReview.publish();
+            logger.debug("{} merge request review notes published", published);
         } catch (IOException e) {
-            throw new IllegalStateException("Unable to create retrive author for commit " + revision, e);
+            throw new IllegalStateException("Unable to publish merge request review " + configuration.mergeRequestIid(),
+                    e);
+        }
+    }
+
+    /**
+     * Get GitLab username of the author of a revision. Authors and usernames are memoized for the whole analysis,
+     * including when no user is found, see {@link #memoize}.
+     *
+     * @throws IllegalStateException if any errors when fetching GitLab API.
+     */
+    Optional<String> getUsernameForRevision(String revision) {
+        try {
+            Optional<String> email = memoize(authorEmailByRevision, revision, () -> fetchAuthorEmail(revision));
+            return email.isPresent() ? memoize(usernameByEmail, email.get(), () -> fetchUsername(email.get()))
+                    : Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching author of commit " + revision, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to create retrive author for commit " + revision, e.getCause());
         }
     }
 
+    GitLabMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Log cache statistics and the metrics summary, and write metrics to the working directory if configured.
+     */
+    void logStatistics() {
+        logger.debug("File line cache: {} hits, {} misses", fileLineCache.hits(), fileLineCache.misses());
+        if (patchPositionsCache != null) {
+            logger.debug("Diff cache: {} hits, {} misses", patchPositionsCache.hits(), patchPositionsCache.misses());
+        }
+        logger.info(metrics.summary());
+        if (configuration.metricsReport() && workDir != null) {
+            File file = new File(workDir, METRICS_FILE);
+            try {
+                metrics.writeJson(file.toPath());
+                logger.info("GitLab plugin metrics written to {}", file);
+            } catch (IOException e) {
+                logger.warn("Unable to write GitLab plugin metrics to {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * @return path relative to Git root directory, {@code null} if outside of it.
+     */
+    @CheckForNull
     private String getPath(InputPath inputPath) {
-        return new PathResolver().relativePath(gitBaseDir, inputPath.file());
+        return relativePaths.computeIfAbsent(inputPath, p -> {
+            String path = PATH_RESOLVER.relativePath(gitBaseDir, p.file());
+            return path == null ? null : changedPaths.getOrDefault(path, path);
+        });
     }
 
     private File findGitBaseDir(@Nullable File baseDir) {
@@ -234,134 +430,487 @@ public class GitLabApiFacade {
             throw new IllegalStateException("Missing required attribute: " + GitLabPlugin.GITLAB_PROJECT_ID);
         }
 
-        GitlabProject project = gitLabApi.getProject(configuration.projectId());
-        if (project != null) {
-            return project;
+        return new GitLabProjectLocator(gitLabApi, guard, configuration.url(), projectCacheFile)
+                .locate(configuration.projectId());
+    }
+
+    /**
+     * Keep the revisions added since the newest one that already holds a final status of this plugin. Older revisions
+     * are remembered as published: their lines are still attributed, but they are not commented again.
+     * <p>
+     * Statuses are fetched newest first, by batches of {@link GitLabPlugin#GITLAB_API_CONCURRENCY} revisions fetched
+     * in parallel, until a batch holds a published revision.
+     */
+    private List<String> findNewRevisions(ExecutorService executor, List<String> revisions) throws IOException {
+        if (!configuration.incremental()) {
+            return revisions;
         }
+        if (!"commit-status".equals(configuration.statusNotificationMode())) {
+            logger.warn("Incremental publication requires commit-status notification mode, publishing all revisions");
+            return revisions;
+        }
+        int batchSize = Math.max(1, configuration.apiConcurrency());
+        long deadline = deadline();
+        for (int from = 0; from < revisions.size(); from += batchSize) {
+            int to = Math.min(revisions.size(), from + batchSize);
+            Map<String, Boolean> published = awaitPerRevision(submitPerRevision(executor,
+                    revisions.subList(from, to), this::hasPublishedStatus), deadline);
+            for (int i = from; i < to; i++) {
+                if (published.get(revisions.get(i))) {
+                    publishedRevisions.addAll(revisions.subList(i, revisions.size()));
+                    logger.info("Revision {} already published, only commenting revisions {}", revisions.get(i),
+                            revisions.subList(0, i));
+                    return revisions.subList(0, i);
+                }
+            }
+        }
+        return revisions;
+    }
+
+    private boolean hasPublishedStatus(String revision) throws IOException {
+        Pagination pagination = new Pagination();
+        pagination.setPerPage(Pagination.MAX_ITEMS_PER_PAGE);
+        List<GitlabCommitStatus> statuses = guard.call("commit statuses", true,
+                () -> gitLabApi.getCommitStatuses(gitLabProject.getId(), revision, pagination));
+        return statuses.stream().anyMatch(s -> COMMIT_CONTEXT.equals(s.getName())
+                && PUBLISHED_STATES.contains(s.getStatus()));
+    }
 
-        Set<GitlabProject> projects = Optional
-                .ofNullable(gitLabApi.getProjects())
-                .orElseThrow(() -> new IllegalStateException("Unable to find projects within: " + configuration.url()))
+    /**
+     * Combined diff from the parent of the oldest revision to the newest one.
+     *
+     * @return {@code null} if the oldest revision has no parent, then commit diffs must be used.
+     */
+    @CheckForNull
+    private Map<String, PatchPositions> getComparePositions() throws IOException {
+        String oldest = revisions.get(revisions.size() - 1);
+        GitlabCommit commit = guard.call("commit", true, () -> gitLabApi.getCommit(gitLabProject.getId(), oldest));
+        FutureTask<Optional<String>> authorEmail = new FutureTask<>(() -> Optional.ofNullable(commit.getAuthorEmail()));
+        authorEmail.run();
+        authorEmailByRevision.putIfAbsent(oldest, authorEmail);
+        if (commit.getParentIds() == null || commit.getParentIds().isEmpty()) {
+            logger.warn("Revision {} has no parent, unable to compare revisions, fetching diff of every revision",
+                    oldest);
+            return null;
+        }
+
+        String range = commit.getParentIds().get(0) + ".." + revisions.get(0);
+        if (patchPositionsCache != null) {
+            Map<String, PatchPositions> cached = patchPositionsCache.get(gitLabProject.getId(), range);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        GitlabCommitComparison comparison = guard.call("compare", true, () -> gitLabApi.compareCommits(
+                gitLabProject.getId(), commit.getParentIds().get(0), revisions.get(0)));
+        if (Boolean.TRUE.equals(comparison.getCompareTimeout())) {
+            logger.warn("Comparison of {} timed out on GitLab side, some changed files may be missing", range);
+        }
+        Map<String, PatchPositions> positions = comparison
+                .getDiffs()
                 .stream()
-                .filter(this::isMatchingProject)
-                .collect(toSet());
-        if (projects.isEmpty()) {
-            throw new IllegalStateException("Unable to found project for " + configuration.projectId());
+                .collect(toMap(GitlabCommitDiff::getNewPath, this::parse));
+        if (patchPositionsCache != null && !Boolean.TRUE.equals(comparison.getCompareTimeout())) {
+            patchPositionsCache.put(gitLabProject.getId(), range, positions);
+        }
+        return positions;
+    }
+
+    /**
+     * Find the revision that added a line of the combined diff, fetching commit diffs newest first and only until
+     * one matches.
+     *
+     * @return empty when no commit diff adds the line, e.g. a line only changed by a merge.
+     */
+    private Optional<String> attributeRevision(String path, int lineNumber, String content) {
+        long contentHash = ContentHash.of(content);
+        for (String revision : revisions) {
+            PatchPositions positions = getCommitPositions(revision).get(path);
+            if (positions != null && positions.contains(lineNumber, contentHash)) {
+                return Optional.of(revision);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Fetch the diff of a revision outside of {@link #commitPositions} bin lock, so lines of other revisions are
+     * attributed meanwhile, see {@link #memoize}.
+     */
+    private Map<String, PatchPositions> getCommitPositions(String revision) {
+        try {
+            return memoize(commitPositions, revision, () -> getPatchPositionsToLineMapping(revision));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching diff of revision " + revision, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to fetch diff of revision " + revision, e.getCause());
+        }
+    }
+
+    /**
+     * Compute the value of a key once, outside of the bin lock of {@code memo} so other keys are computed meanwhile.
+     * Threads asking for the same key wait for the first computation. A failed computation is forgotten, so the next
+     * caller retries it.
+     */
+    private static <K, V> V memoize(Map<K, FutureTask<V>> memo, K key, Callable<V> computation)
+            throws InterruptedException, ExecutionException {
+        FutureTask<V> task = new FutureTask<>(computation);
+        FutureTask<V> existing = memo.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            task.run();
         }
-        if (projects.size() > 1) {
-            throw new IllegalStateException("Multiple projects found for " + configuration.projectId());
+        try {
+            return existing.get();
+        } catch (ExecutionException e) {
+            memo.remove(key, existing);
+            throw e;
         }
-        return projects.iterator().next();
     }
 
-    private boolean isMatchingProject(GitlabProject project) {
-        return configuration.projectId().equals(project.getId().toString())
-                || configuration.projectId().equals(project.getPathWithNamespace())
-                || configuration.projectId().equals(project.getHttpUrl())
-                || configuration.projectId().equals(project.getSshUrl())
-                || configuration.projectId().equals(project.getWebUrl())
-                || configuration.projectId().equals(project.getNameWithNamespace());
+    private PatchPositions parse(GitlabCommitDiff diff) {
+        long start = GitLabMetrics.start();
+        PatchPositions positions = PatchParser.parse(diff.getDiff());
+        metrics.stop(GitLabMetrics.DIFF_PARSING, start);
+        if (diff.getOldPath() != null && !diff.getOldPath().equals(diff.getNewPath())) {
+            positions.setOldPath(diff.getOldPath());
+        }
+        return positions;
     }
 
     /**
-     * GitLab expect review comments to be added on "patch lines" (aka position) but not on file lines.
-     * So we have to iterate over each patch and compute corresponding file line in order to later map issues
-     * to the correct position.
+     * Fetch and parse patches of a revision, see {@link PatchParser}.
      *
-     * @return Map corresponding of Revision -> File path -> List of Position.
+     * @return Map corresponding of File path -> added lines for given revision.
      * @throws IOException If any issue when fetching GitLab API.
      */
-    private Map<String, Map<String, Set<Line>>> getPatchPositionsToLineMapping(List<String> revisions) throws IOException {
-        Map<String, Map<String, Set<Line>>> result = new HashMap<>();
+    private Map<String, PatchPositions> getPatchPositionsToLineMapping(String revision) throws IOException {
+        if (patchPositionsCache != null) {
+            Map<String, PatchPositions> cached = patchPositionsCache.get(gitLabProject.getId(), revision);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Map<String, PatchPositions> positions = new HashMap<>();
+        PageFold fold = forEachPage("commit diffs", p -> gitLabApi.getCommitDiffs(gitLabProject.getId(), revision, p),
+                (GitlabCommitDiff d) -> positions.put(d.getNewPath(), parse(d)));
+        if (patchPositionsCache != null && fold.complete) {
+            patchPositionsCache.put(gitLabProject.getId(), revision, positions);
+        }
+        return positions;
+    }
+
+    @CheckForNull
+    private PatchPositionsCache createPatchPositionsCache(@Nullable File workDir) {
+        if (!configuration.diffCache()) {
+            return null;
+        }
+        File directory = configuration.diffCacheDir() != null ? new File(configuration.diffCacheDir())
+                : workDir != null ? new File(workDir, DIFF_CACHE_DIRECTORY) : null;
+        if (directory == null) {
+            logger.warn("Diff cache disabled, no directory configured with {}", GitLabPlugin.GITLAB_DIFF_CACHE_DIR);
+            return null;
+        }
+        return new PatchPositionsCache(directory.toPath(), configuration.diffCacheSize() * 1024L * 1024L);
+    }
 
+    /**
+     * Index every added line by file path and line number, so finding the revision of an issue line
+     * does not require to scan all revisions.
+     *
+     * @param revisions revisions in priority order, first matching one wins.
+     */
+    private RevisionLineIndex buildRevisionLineIndex(List<String> revisions,
+            Map<String, Map<String, PatchPositions>> positionsByRevision) {
+        RevisionLineIndex index = new RevisionLineIndex();
         for (String revision : revisions) {
-            result.put(revision,
-                    gitLabApi.getCommitDiffs(gitLabProject.getId(), revision)
-                             .stream()
-                             .collect(toMap(GitlabCommitDiff::getNewPath, d -> getPositionsFromPatch(d.getDiff()))));
+            positionsByRevision.getOrDefault(revision, Collections.emptyMap())
+                               .forEach((path, positions) -> index.add(revision, path, positions));
         }
+        return index;
+    }
 
-        return result;
+    /**
+     * Follow renames from the oldest revision to the newest one, to find the path of renamed files before the oldest
+     * revision.
+     *
+     * @param revisions revisions newest first.
+     * @return path before the oldest revision by path, for renamed files only.
+     */
+    private static Map<String, String> findBasePaths(List<String> revisions,
+            Map<String, Map<String, PatchPositions>> positionsByRevision) {
+        Map<String, String> basePaths = new HashMap<>();
+        for (int i = revisions.size() - 1; i >= 0; i--) {
+            positionsByRevision.getOrDefault(revisions.get(i), Collections.emptyMap()).forEach((path, positions) -> {
+                if (positions.oldPath() != null) {
+                    String basePath = basePaths.remove(positions.oldPath());
+                    basePaths.put(path, basePath != null ? basePath : positions.oldPath());
+                }
+            });
+        }
+        return basePaths;
+    }
+
+    @CheckForNull
+    private ETagCache createETagCache(@Nullable File workDir) {
+        if (!configuration.etagCache()) {
+            return null;
+        }
+        File directory = configuration.diffCacheDir() != null ? new File(configuration.diffCacheDir())
+                : workDir != null ? new File(workDir, ETAG_CACHE_DIRECTORY) : null;
+        if (directory == null) {
+            logger.warn("ETag cache disabled, no directory configured with {}", GitLabPlugin.GITLAB_DIFF_CACHE_DIR);
+            return null;
+        }
+        return new ETagCache(directory.toPath(), configuration.diffCacheSize() * 1024L * 1024L);
     }
 
-    private Set<Line> getPositionsFromPatch(String patch) {
-        Set<Line> positions = new HashSet<>();
+    private MergeRequestReview createMergeRequestReview(GitLabRestClient client) {
+        if (configuration.mergeRequestIid() == null) {
+            throw new IllegalStateException("Missing required attribute: " + GitLabPlugin.GITLAB_MERGE_REQUEST_IID);
+        }
+        return new MergeRequestReview(client, guard, gitLabProject.getId(), configuration.mergeRequestIid());
+    }
 
-        int currentLine = -1;
-        for (String line : patch.split("\n")) {
-            if (line.startsWith("@")) {
-                Matcher matcher = PATCH_CHUNK_PATTERN.matcher(line);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Unable to parse line:\n\t" + line + "\nFull patch: \n\t" + patch);
-                }
-                currentLine = Integer.parseInt(matcher.group(1));
-            } else if (line.startsWith("+")) {
-                positions.add(new Line(currentLine, line.replaceFirst("\\+", "")));
-                currentLine++;
-            } else if (line.startsWith(" ")) {
-                // Can't comment line if not addition or deletion due to following bug
-                // https://gitlab.com/gitlab-org/gitlab-ce/issues/26606
-                currentLine++;
+    /**
+     * Index notes already on the merge request diff for every revision, as the revision of a note is not known.
+     */
+    private int indexMergeRequestNotes(List<String> revisions) throws IOException {
+        List<MergeRequestReview.Note> notes = mergeRequestReview.load();
+        for (MergeRequestReview.Note note : notes) {
+            revisions.forEach(r -> commitCommentIndex.add(r, note.path(), note.line(), note.body()));
+        }
+        return notes.size();
+    }
+
+    private int awaitReviewNotes(Future<Integer> future, long deadline) throws IOException {
+        try {
+            return deadline != NO_DEADLINE ? future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                    : future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new InterruptedIOException("Interrupted while fetching merge request notes");
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Unable to fetch merge request " + configuration.mergeRequestIid(),
+                    e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private int indexCommitComments(String revision) throws IOException {
+        return forEachPage("commit comments", p -> gitLabApi.getCommitComments(gitLabProject.getId(), revision, p),
+                c -> {
+                    if (c != null) {
+                        commitCommentIndex.add(revision, c);
+                    }
+                }).count;
+    }
+
+    /**
+     * Fold a paginated list page by page, so that raw objects of a single page are held at a time. Every page is a
+     * guarded call of its own: a page failing transiently is retried without fetching the previous ones again.
+     * <p>
+     * Pages are followed with {@code X-Next-Page} when GitLab sends it, otherwise until a page is not full. A page
+     * identical to the previous one, e.g. from a proxy dropping the {@code page} parameter, ends the list, which is
+     * then reported incomplete.
+     *
+     * @return number of items, and whether every page was read.
+     */
+    private <T> PageFold forEachPage(String operation, PageCall<T> call, Consumer<T> consumer) throws IOException {
+        int count = 0;
+        byte[] previous = null;
+        for (int page = 1; ; ) {
+            Pagination pagination = new Pagination();
+            pagination.setPage(page);
+            pagination.setPerPage(Pagination.MAX_ITEMS_PER_PAGE);
+            GitLabRestClient.Page<T> items = guard.call(operation, true, () -> call.call(pagination));
+            if (previous != null && Arrays.equals(previous, items.body())) {
+                logger.warn("GitLab answered page {} of {} like the previous one, ignoring next pages", page,
+                        operation);
+                return new PageFold(count, false);
             }
+            items.items().forEach(consumer);
+            count += items.items().size();
+            int next = nextPage(page, items);
+            if (next <= page) {
+                return new PageFold(count, true);
+            }
+            previous = items.body();
+            page = next;
         }
+    }
 
-        return positions;
+    /**
+     * @return page following {@code page}, or {@code page} itself after the last one.
+     */
+    private static int nextPage(int page, GitLabRestClient.Page<?> items) {
+        String header = items.nextPage();
+        if (header != null) {
+            try {
+                return header.isEmpty() ? page : Integer.parseInt(header.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid X-Next-Page header: {}", header);
+            }
+        }
+        return items.items().size() < Pagination.MAX_ITEMS_PER_PAGE ? page : page + 1;
     }
 
-    private Map<String, List<CommitComment>> getCommitCommentsPerRevision(List<String> revisions) throws IOException {
+    private <T> RevisionCalls<T> submitPerRevision(ExecutorService executor, List<String> revisions,
+            RevisionCall<T> call) {
         assertNotNull(revisions, "revision must not be null");
 
-        Map<String, List<CommitComment>> result = new HashMap<>();
+        RevisionCalls<T> calls = new RevisionCalls<>(executor);
         for (String revision : revisions) {
-            result.put(revision, gitLabApi.getCommitComments(gitLabProject.getId(), revision));
+            calls.submit(revision, () -> call.call(revision));
         }
+        return calls;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} after which pending calls are abandoned, see
+     * {@link GitLabPlugin#GITLAB_API_INIT_TIMEOUT}, or {@link #NO_DEADLINE}. Each request is bounded by
+     * {@link GitLabPlugin#GITLAB_API_TIMEOUT} anyway.
+     */
+    private long deadline() {
+        int timeout = configuration.apiInitTimeout();
+        return timeout > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) : NO_DEADLINE;
+    }
+
+    /**
+     * Wait for every revision call in completion order, until the deadline shared by all calls. On first failure or
+     * once the deadline is reached, pending calls are cancelled and failures of all already completed calls are
+     * reported together.
+     *
+     * @return Map corresponding of Revision -> call result, ordered as revisions were submitted.
+     * @throws IOException if at least one call failed or did not complete before the deadline.
+     */
+    private <T> Map<String, T> awaitPerRevision(RevisionCalls<T> calls, long deadline) throws IOException {
+        Map<String, Future<T>> futures = calls.futures;
+        Map<String, T> completed = new HashMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            String revision = null;
+            try {
+                Future<T> future = deadline != NO_DEADLINE
+                        ? calls.completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        : calls.completion.take();
+                if (future == null) {
+                    revision = futures.entrySet().stream().filter(e -> !e.getValue().isDone()).map(Map.Entry::getKey)
+                                      .findFirst().orElse(null);
+                    throw new TimeoutException();
+                }
+                revision = calls.revisions.get(future);
+                completed.put(revision, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(f -> f.cancel(true));
+                throw new InterruptedIOException("Interrupted while fetching revisions");
+            } catch (ExecutionException | TimeoutException e) {
+                futures.values().forEach(f -> f.cancel(true));
+                throw aggregateFailures(futures, revision, e);
+            }
+        }
+
+        Map<String, T> result = new LinkedHashMap<>();
+        futures.keySet().forEach(revision -> result.put(revision, completed.get(revision)));
         return result;
     }
 
+    private static IOException aggregateFailures(Map<String, ? extends Future<?>> futures, String failedRevision,
+            Exception failure) {
+        List<Throwable> failures = new ArrayList<>();
+        failures.add(revisionFailure(failedRevision, failure));
+        futures.forEach((revision, future) -> {
+            if (!revision.equals(failedRevision) && future.isDone() && !future.isCancelled()) {
+                try {
+                    future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    failures.add(revisionFailure(revision, e));
+                }
+            }
+        });
+
+        IOException exception = new IOException(String.format("Unable to fetch %d of %d revisions",
+                failures.size(), futures.size()), failures.get(0));
+        failures.stream().skip(1).forEach(exception::addSuppressed);
+        return exception;
+    }
+
+    private static Throwable revisionFailure(String revision, Exception e) {
+        if (e instanceof TimeoutException) {
+            return new TimeoutException("Timed out fetching revision " + revision);
+        }
+        Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+        return new IOException("Unable to fetch revision " + revision, cause);
+    }
+
+    private Optional<String> fetchAuthorEmail(String revision) throws IOException {
+        GitlabCommit commit = guard.call("commit", true, () -> gitLabApi.getCommit(gitLabProject.getId(), revision));
+        return Optional.ofNullable(commit.getAuthorEmail());
+    }
+
+    private Optional<String> fetchUsername(String email) throws IOException {
+        return guard.call("users", true, () -> gitLabApi.findUsers(email))
+                    .stream()
+                    .filter(x -> email.equals(x.getEmail()))
+                    .map(GitlabUser::getUsername)
+                    .findFirst();
+    }
+
     private void assertNotNull(Object value, String errorMessage) {
         if (value == null) {
             throw new IllegalArgumentException(errorMessage);
         }
     }
 
-    public static class Line {
+    /**
+     * Calls submitted for a list of revisions, reported as they complete.
+     */
+    private static class RevisionCalls<T> {
 
-        private static final Logger logger = Loggers.get(Line.class);
+        private final CompletionService<T> completion;
 
-        private Integer number;
+        private final Map<String, Future<T>> futures = new LinkedHashMap<>();
 
-        private String content;
+        private final Map<Future<T>, String> revisions = new HashMap<>();
 
-        Line(Integer number, String content) {
-            this.number = number;
-            this.content = content;
+        private RevisionCalls(ExecutorService executor) {
+            this.completion = new ExecutorCompletionService<>(executor);
         }
 
-        @Override
-        public String toString() {
-            return "Line{" + "number=" + number +
-                    ", content='" + content + '\'' +
-                    '}';
+        private void submit(String revision, Callable<T> call) {
+            Future<T> future = completion.submit(call);
+            futures.put(revision, future);
+            revisions.put(future, revision);
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            logger.debug("equals? {} = {}", o, this);
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
-            }
-            Line line = (Line) o;
-            return Objects.equals(number, line.number) &&
-                    Objects.equals(content, line.content);
-        }
+    /**
+     * Result of {@link #forEachPage}.
+     */
+    private static class PageFold {
+
+        private final int count;
+
+        private final boolean complete;
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(number, content);
+        private PageFold(int count, boolean complete) {
+            this.count = count;
+            this.complete = complete;
         }
     }
 
+    @FunctionalInterface
+    private interface RevisionCall<T> {
+
+        T call(String revision) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface PageCall<T> {
+
+        GitLabRestClient.Page<T> call(Pagination pagination) throws IOException;
+    }
+
 }
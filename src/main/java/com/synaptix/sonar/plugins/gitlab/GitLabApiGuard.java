@@ -0,0 +1,205 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.gitlab.api.GitlabAPIException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Guard every GitLab API call of an analysis:
+ * <ul>
+ * <li>throttle requests through a {@link TokenBucket}, slowed down on each 429 response and kept within the quota
+ * GitLab announces in {@code RateLimit-*} headers,</li>
+ * <li>retry transient failures after the {@code Retry-After} delay of the response, or with exponential backoff and
+ * full jitter,</li>
+ * <li>fail fast once GitLab keeps failing with server or network errors, see {@link CircuitBreaker}. Rate limited
+ * responses are answers of a working GitLab and do not count as failures.</li>
+ * </ul>
+ * Only idempotent calls are retried on server or network errors, other calls are retried on 429 only since
+ * GitLab did not process them.
+ */
+class GitLabApiGuard {
+
+    private static final Logger logger = Loggers.get(GitLabApiGuard.class);
+
+    private static final long BASE_BACKOFF_MILLIS = 250;
+
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+
+    private static final long CIRCUIT_OPEN_SECONDS = 30;
+
+    private static final long MAX_RETRY_AFTER_MILLIS = 60_000;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final int maxRetries;
+
+    private final long baseBackoffMillis;
+
+    private final TokenBucket tokenBucket;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final GitLabMetrics metrics;
+
+    GitLabApiGuard(int maxRetries, double requestsPerSecond, GitLabMetrics metrics) {
+        this(maxRetries, BASE_BACKOFF_MILLIS, new TokenBucket(requestsPerSecond, System::nanoTime),
+                new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, TimeUnit.SECONDS.toNanos(CIRCUIT_OPEN_SECONDS),
+                        System::nanoTime), metrics);
+    }
+
+    GitLabApiGuard(int maxRetries, long baseBackoffMillis, TokenBucket tokenBucket, CircuitBreaker circuitBreaker,
+            GitLabMetrics metrics) {
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.tokenBucket = tokenBucket;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param operation  description of the call, for logs and errors.
+     * @param idempotent whether the call can safely be sent again after a server or network error.
+     * @throws IOException last failure once retries are exhausted, or if the circuit is open.
+     */
+    <T> T call(String operation, boolean idempotent, GitLabCall<T> call) throws IOException {
+        String metric = GitLabMetrics.API_PREFIX + operation;
+        for (int attempt = 0; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                metrics.increment(metric + " failures");
+                throw new IOException(String.format("GitLab API unavailable after %d consecutive failures, " +
+                        "skipping %s", circuitBreaker.consecutiveFailures(), operation));
+            }
+            tokenBucket.acquire();
+            long start = GitLabMetrics.start();
+            try {
+                T result = call.call();
+                metrics.stop(metric, start);
+                circuitBreaker.onSuccess();
+                tokenBucket.recover();
+                return result;
+            } catch (IOException e) {
+                metrics.stop(metric, start);
+                boolean throttled = isThrottled(e);
+                if (throttled) {
+                    tokenBucket.throttle();
+                }
+                long retryAfter = retryAfterMillis(e);
+                if (retryAfter >= 0) {
+                    tokenBucket.pause(TimeUnit.MILLISECONDS.toNanos(retryAfter));
+                }
+                if (!isTransient(e)) {
+                    metrics.increment(metric + " failures");
+                    throw e;
+                }
+                if (!throttled) {
+                    circuitBreaker.onFailure();
+                }
+                if (attempt >= maxRetries || !(idempotent || throttled) || Thread.currentThread().isInterrupted()) {
+                    metrics.increment(metric + " failures");
+                    throw e;
+                }
+                metrics.increment(metric + " retries");
+                long backoff = retryAfter >= 0 ? retryAfter : backoffMillis(attempt);
+                logger.debug("Retry {} of {} in {} ms after: {}", attempt + 1, operation, backoff, e.getMessage());
+                sleep(backoff);
+            }
+        }
+    }
+
+    double currentRate() {
+        return tokenBucket.rate();
+    }
+
+    /**
+     * Keep next calls within the quota GitLab announced on a response.
+     *
+     * @param remaining   requests GitLab still accepts until the reset.
+     * @param resetMillis delay until GitLab restores the quota.
+     * @see GitLabRestClient.RateLimitListener
+     */
+    void onRateLimit(long remaining, long resetMillis) {
+        tokenBucket.limit(remaining, TimeUnit.MILLISECONDS.toNanos(resetMillis));
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return {@code Retry-After} delay of a 429 or 503 response, negative if none.
+     */
+    private static long retryAfterMillis(IOException e) {
+        if (!(e instanceof GitLabHttpException)) {
+            return -1;
+        }
+        GitLabHttpException httpException = (GitLabHttpException) e;
+        int code = httpException.getResponseCode();
+        return code == TOO_MANY_REQUESTS || code == SERVICE_UNAVAILABLE
+                ? Math.min(MAX_RETRY_AFTER_MILLIS, httpException.retryAfterMillis()) : -1;
+    }
+
+    private static boolean isThrottled(IOException e) {
+        return e instanceof GitlabAPIException && ((GitlabAPIException) e).getResponseCode() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Rate limiting, server errors and network errors: timeouts, refused or reset connections
+     * ({@link java.net.ConnectException} is a {@link SocketException}) and unresolved hosts. Other HTTP errors are
+     * answers of a working GitLab, and other I/O errors such as malformed JSON responses would fail again.
+     */
+    private static boolean isTransient(IOException e) {
+        if (e instanceof GitlabAPIException) {
+            int code = ((GitlabAPIException) e).getResponseCode();
+            return code == TOO_MANY_REQUESTS || code >= 500 && code < 600;
+        }
+        return e instanceof SocketTimeoutException || e instanceof SocketException
+                || e instanceof UnknownHostException;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry GitLab API call");
+        }
+    }
+
+    @FunctionalInterface
+    interface GitLabCall<T> {
+
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Thread pools used to run GitLab API calls and to process issues.
+ */
+final class GitLabExecutors {
+
+    private static final Logger logger = Loggers.get(GitLabExecutors.class);
+
+    private GitLabExecutors() {
+    }
+
+    /**
+     * Create a pool to call GitLab API with the given kind of threads, see {@link GitLabPlugin#GITLAB_API_THREADS}.
+     * Virtual threads are only available on Java 21 or later, platform threads are used otherwise.
+     * <p>
+     * Both kinds run at most {@code concurrency} calls at once. Platform threads are a fixed pool of that size. Virtual
+     * threads are not pooled: every task gets its own thread, which waits for one of {@code concurrency} permits
+     * before calling GitLab, so a waiting or blocked call does not hold a platform thread.
+     *
+     * @param threads     {@link GitLabPlugin#VIRTUAL_THREADS} or {@link GitLabPlugin#PLATFORM_THREADS}.
+     * @param concurrency maximum number of calls at once, at least one.
+     * @param name        prefix of thread names.
+     */
+    static ExecutorService newApiPool(String threads, int concurrency, String name) {
+        if (GitLabPlugin.VIRTUAL_THREADS.equals(threads)) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor(name);
+            if (executor != null) {
+                logger.debug("{} pool: virtual threads, {} calls at once", name, Math.max(1, concurrency));
+                return new BoundedExecutorService(executor, Math.max(1, concurrency));
+            }
+        }
+        logger.debug("{} pool: {} platform threads", name, Math.max(1, concurrency));
+        return newFixedPool(concurrency, name);
+    }
+
+    /**
+     * Create a fixed pool of daemon threads, so a pending call never prevents scanner JVM to exit.
+     *
+     * @param concurrency number of threads, at least one thread is created.
+     * @param name        prefix of thread names.
+     */
+    static ExecutorService newFixedPool(int concurrency, String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+            Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create a fork join pool of daemon threads, to run parallel streams outside of the common pool.
+     *
+     * @param parallelism number of threads, at least one thread is created.
+     * @param name        prefix of thread names.
+     */
+    static ForkJoinPool newForkJoinPool(int parallelism, String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ForkJoinPool(Math.max(1, parallelism), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Look {@code Thread.ofVirtual()} and {@code Executors.newThreadPerTaskExecutor} up, as the plugin is built for
+     * Java 8.
+     *
+     * @return executor starting a virtual thread, always daemon, per task, or {@code null} if the runtime does not
+     * provide them.
+     */
+    @CheckForNull
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                                                    .invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            logger.debug("Virtual threads not available: {}", e.toString());
+            return null;
+        } catch (InvocationTargetException e) {
+            // preview feature of Java 19 and 20
+            logger.debug("Virtual threads not available: {}", e.getCause().toString());
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual threads", e);
+        }
+    }
+
+    /**
+     * Run tasks of an unbounded executor with at most a given number of them at once. Tasks waiting for a permit are
+     * already started, cancelling one or shutting the executor down now interrupts its wait.
+     */
+    private static final class BoundedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final Semaphore permits;
+
+        BoundedExecutorService(ExecutorService delegate, int permits) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(permits);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import javax.annotation.Nullable;
+
+import org.gitlab.api.GitlabAPIException;
+
+/**
+ * Error response of GitLab API, with the delay GitLab asked to wait with {@code Retry-After} before sending the
+ * request again, typically along {@code 429 Too Many Requests} or {@code 503 Service Unavailable}.
+ */
+class GitLabHttpException extends GitlabAPIException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis delay given by {@code Retry-After}, negative when absent.
+     */
+    GitLabHttpException(String message, int responseCode, long retryAfterMillis, @Nullable Throwable cause) {
+        super(message, responseCode, cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return delay given by {@code Retry-After}, negative when absent.
+     */
+    long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
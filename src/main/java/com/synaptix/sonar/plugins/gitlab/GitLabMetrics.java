@@ -0,0 +1,215 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gitlab.api.GitlabAPI;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Timers and counters of an analysis: GitLab API calls, diff parsing, line resolution and post job phases.
+ * <p>
+ * Recording is lock-free, so hot paths can be timed from any thread. Latencies are counted in fixed buckets, from
+ * which the summary derives upper bounds of percentiles.
+ */
+class GitLabMetrics {
+
+    static final String INIT = "init";
+
+    static final String API_PREFIX = "api ";
+
+    static final String API_BYTES = "api bytes received";
+
+    static final String API_NOT_MODIFIED = "api not modified";
+
+    static final String DIFF_PARSING = "diff parsing";
+
+    static final String LINE_RESOLUTION = "line resolution";
+
+    static final String POST_JOB_PREFIX = "post job ";
+
+    /**
+     * Upper bounds of latency buckets, the last bucket holds every longer latency.
+     */
+    private static final long[] BUCKET_BOUNDS_MICROS = {100, 1_000, 10_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 5_000_000};
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * @return start time to give to {@link #stop}.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    void stop(String name, long start) {
+        timer(name).record(System.nanoTime() - start);
+    }
+
+    void increment(String name) {
+        add(name, 1);
+    }
+
+    void add(String name, long value) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(value);
+    }
+
+    long count(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Human readable summary, one timer or counter per line, sorted by name.
+     */
+    String summary() {
+        StringBuilder summary = new StringBuilder("GitLab plugin metrics:");
+        timers.forEach((name, timer) -> summary
+                .append("\n  ").append(name).append(": ").append(timer.count()).append(" in ")
+                .append(millis(timer.totalNanos())).append(" ms, max ").append(millis(timer.maxNanos()))
+                .append(" ms, p50 <= ").append(timer.percentileBoundMillis(0.5))
+                .append(" ms, p95 <= ").append(timer.percentileBoundMillis(0.95)).append(" ms"));
+        counters.forEach((name, counter) -> summary.append("\n  ").append(name).append(": ").append(counter.sum()));
+        return summary.toString();
+    }
+
+    /**
+     * Write timers and counters as JSON, for CI dashboards.
+     */
+    void writeJson(Path file) throws IOException {
+        Map<String, Object> timersJson = new LinkedHashMap<>();
+        timers.forEach((name, timer) -> {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("count", timer.count());
+            json.put("totalMillis", millis(timer.totalNanos()));
+            json.put("maxMillis", millis(timer.maxNanos()));
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            long[] buckets = timer.buckets();
+            for (int i = 0; i < buckets.length; i++) {
+                String bucket = i < BUCKET_BOUNDS_MICROS.length ? "<=" + BUCKET_BOUNDS_MICROS[i] + "us"
+                        : ">" + BUCKET_BOUNDS_MICROS[BUCKET_BOUNDS_MICROS.length - 1] + "us";
+                histogram.put(bucket, buckets[i]);
+            }
+            json.put("histogram", histogram);
+            timersJson.put(name, json);
+        });
+        Map<String, Object> countersJson = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> countersJson.put(name, counter.sum()));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timers", timersJson);
+        json.put("counters", countersJson);
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (OutputStream output = Files.newOutputStream(file)) {
+            GitlabAPI.MAPPER.writer(SerializationFeature.INDENT_OUTPUT).writeValue(output, json);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    static class Timer {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+
+        private Timer() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        long maxNanos() {
+            return maxNanos.get();
+        }
+
+        long[] buckets() {
+            long[] result = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                result[i] = buckets[i].sum();
+            }
+            return result;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given percentile, or the max for the last bucket.
+         */
+        double percentileBoundMillis(double percentile) {
+            long[] counts = buckets();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MICROS[i] / 1000.0;
+                }
+            }
+            return millis(maxNanos());
+        }
+    }
+}
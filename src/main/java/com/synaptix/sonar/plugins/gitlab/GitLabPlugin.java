@@ -44,11 +44,58 @@ public class GitLabPlugin implements Plugin {
     static final String GITLAB_DISABLE_GLOBAL_COMMENT = "sonar.gitlab.disable_global_comment";
     static final String GITLAB_STATUS_NOTIFICATION_MODE = "sonar.gitlab.failure_notification_mode";
     static final String GITLAB_PING_USER = "sonar.gitlab.ping_user";
+    static final String GITLAB_API_CONCURRENCY = "sonar.gitlab.api_concurrency";
+    static final String GITLAB_API_TIMEOUT = "sonar.gitlab.api_timeout";
+    static final String GITLAB_API_MAX_RETRIES = "sonar.gitlab.api_max_retries";
+    static final String GITLAB_API_RATE_LIMIT = "sonar.gitlab.api_rate_limit";
+    static final String GITLAB_COMMENT_MODE = "sonar.gitlab.comment_mode";
+    static final String GITLAB_MERGE_REQUEST_IID = "sonar.gitlab.merge_request_iid";
+    static final String GITLAB_COMMENT_AGGREGATION = "sonar.gitlab.comment_aggregation";
+    static final String GITLAB_COMMENT_AGGREGATION_WINDOW = "sonar.gitlab.comment_aggregation_window";
+    static final String GITLAB_DIFF_CACHE = "sonar.gitlab.diff_cache";
+    static final String GITLAB_DIFF_CACHE_DIR = "sonar.gitlab.diff_cache_dir";
+    static final String GITLAB_DIFF_CACHE_SIZE = "sonar.gitlab.diff_cache_size";
+    static final String GITLAB_INCREMENTAL = "sonar.gitlab.incremental";
+    static final String GITLAB_DIFF_MODE = "sonar.gitlab.diff_mode";
+    static final String GITLAB_ISSUE_PARALLELISM = "sonar.gitlab.issue_parallelism";
+    static final String GITLAB_METRICS_REPORT = "sonar.gitlab.metrics_report";
+    static final String GITLAB_API_TRANSPORT = "sonar.gitlab.api_transport";
+    static final String GITLAB_API_CONNECT_TIMEOUT = "sonar.gitlab.api_connect_timeout";
+    static final String GITLAB_ETAG_CACHE = "sonar.gitlab.etag_cache";
+    static final String GITLAB_API_THREADS = "sonar.gitlab.api_threads";
+    static final String GITLAB_API_INIT_TIMEOUT = "sonar.gitlab.api_init_timeout";
 
     static final List<String> BUILD_INIT_STATES = Collections.unmodifiableList(Arrays.asList("pending", "running"));
     private static final List<String> STATUS_NOTIFICATIONS_MODE = Collections.unmodifiableList(
             Arrays.asList("commit-status", "exit-code")
     );
+    static final String COMMIT_COMMENT_MODE = "commit-comment";
+    static final String MERGE_REQUEST_REVIEW_MODE = "merge-request-review";
+    private static final List<String> COMMENT_MODES = Collections.unmodifiableList(
+            Arrays.asList(COMMIT_COMMENT_MODE, MERGE_REQUEST_REVIEW_MODE)
+    );
+    static final String NO_AGGREGATION = "none";
+    private static final List<String> COMMENT_AGGREGATIONS = Collections.unmodifiableList(
+            Arrays.asList(NO_AGGREGATION, InlineCommentAggregator.LINE_MODE, InlineCommentAggregator.RULE_MODE)
+    );
+
+    static final String COMMIT_DIFF_MODE = "commit";
+    static final String COMPARE_DIFF_MODE = "compare";
+    private static final List<String> DIFF_MODES = Collections.unmodifiableList(
+            Arrays.asList(COMMIT_DIFF_MODE, COMPARE_DIFF_MODE)
+    );
+
+    static final String AUTO_TRANSPORT = "auto";
+    static final String HTTP1_TRANSPORT = "http1";
+    private static final List<String> TRANSPORTS = Collections.unmodifiableList(
+            Arrays.asList(AUTO_TRANSPORT, HTTP1_TRANSPORT)
+    );
+
+    static final String PLATFORM_THREADS = "platform";
+    static final String VIRTUAL_THREADS = "virtual";
+    private static final List<String> THREADS = Collections.unmodifiableList(
+            Arrays.asList(PLATFORM_THREADS, VIRTUAL_THREADS)
+    );
 
     private static final String CATEGORY = "gitlab";
     private static final String INSTANCE_SUBCATEGORY = "instance";
@@ -171,6 +218,232 @@ public class GitLabPlugin implements Plugin {
                         .type(PropertyType.BOOLEAN)
                         .defaultValue(String.valueOf(false))
                         .index(12)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_CONCURRENCY)
+                        .name("GitLab API concurrency")
+                        .description("Maximum number of GitLab API requests performed in parallel.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(4))
+                        .index(13)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_TIMEOUT)
+                        .name("GitLab API timeout")
+                        .description("Timeout in seconds of a single GitLab API request.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(60))
+                        .index(14)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_MAX_RETRIES)
+                        .name("GitLab API retries")
+                        .description("Maximum number of retries of a GitLab API request that failed because of " +
+                                "rate limiting, a server or a network error. Retries wait for the Retry-After " +
+                                "delay of the response, if any.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(3))
+                        .index(15)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_RATE_LIMIT)
+                        .name("GitLab API rate limit")
+                        .description("Maximum number of GitLab API requests per second, lowered automatically when " +
+                                "GitLab rate limits requests or announces few remaining requests in RateLimit " +
+                                "headers. 0 for no limit.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(0))
+                        .index(16)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_COMMENT_MODE)
+                        .name("Comment mode")
+                        .description("Comment mode: commit-comment to comment the commits, or merge-request-review " +
+                                "to publish all comments at once as a review of the merge request, which calls " +
+                                "GitLab API v4.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options(COMMENT_MODES)
+                        .defaultValue(COMMIT_COMMENT_MODE)
+                        .index(17)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_MERGE_REQUEST_IID)
+                        .name("Merge request IID")
+                        .description("Internal id of the merge request to review, required by merge-request-review " +
+                                "comment mode.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .hidden()
+                        .index(18)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_COMMENT_AGGREGATION)
+                        .name("Comment aggregation")
+                        .description("Aggregate inline comments: none, line to comment once all issues of a line, " +
+                                "or rule to comment once issues of the same rule within a window of lines.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options(COMMENT_AGGREGATIONS)
+                        .defaultValue(NO_AGGREGATION)
+                        .index(19)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_COMMENT_AGGREGATION_WINDOW)
+                        .name("Comment aggregation window")
+                        .description("Maximum number of lines between the first and the last issue of a comment " +
+                                "with rule aggregation.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(5))
+                        .index(20)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_DIFF_CACHE)
+                        .name("Diff cache")
+                        .description("Keep parsed commit diffs on disk, so that following analyses only fetch " +
+                                "diffs of new commits.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue(String.valueOf(false))
+                        .index(21)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_DIFF_CACHE_DIR)
+                        .name("Diff cache directory")
+                        .description("Directory of the diff cache, may be shared by analyses running on the same " +
+                                "host. Default is a directory of the analysis working directory.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .index(22)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_DIFF_CACHE_SIZE)
+                        .name("Diff cache size")
+                        .description("Maximum size in megabytes of the diff cache, least recently used diffs are " +
+                                "evicted first.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(100))
+                        .index(23)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_INCREMENTAL)
+                        .name("Incremental publication")
+                        .description("Only comment commits added since the last commit that received a SonarQube " +
+                                "commit status. Requires commit-status notification mode.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue(String.valueOf(false))
+                        .index(24)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_DIFF_MODE)
+                        .name("Diff mode")
+                        .description("Diff mode: commit to fetch the diff of every commit, or compare to fetch a " +
+                                "single diff from the parent of the oldest commit to the newest one. In compare " +
+                                "mode, commit diffs are only fetched to find the commit of a commented line.")
+                        .category(CATEGORY)
+                        .subCategory(REPORTING_SUBCATEGORY)
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options(DIFF_MODES)
+                        .defaultValue(COMMIT_DIFF_MODE)
+                        .index(25)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_ISSUE_PARALLELISM)
+                        .name("Issue parallelism")
+                        .description("Number of threads finding the line and formatting the comment of issues. " +
+                                "1 processes issues sequentially, 0 uses one thread per processor.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(1))
+                        .index(26)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_METRICS_REPORT)
+                        .name("Metrics report")
+                        .description("Write timings and counters of the plugin to gitlab-metrics.json in the " +
+                                "analysis working directory. A summary is always logged.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue(String.valueOf(false))
+                        .index(27)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_TRANSPORT)
+                        .name("GitLab API transport")
+                        .description("HTTP transport of GitLab API requests, connections are kept alive between " +
+                                "requests: auto to use HTTP/2 when the scanner runs on Java 11 or later and SSL " +
+                                "certificates are checked, http1 to always use HTTP/1.1.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options(TRANSPORTS)
+                        .defaultValue(AUTO_TRANSPORT)
+                        .index(28)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_CONNECT_TIMEOUT)
+                        .name("GitLab API connect timeout")
+                        .description("Timeout in seconds to open a connection to GitLab, 0 for no timeout.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(10))
+                        .index(29)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_ETAG_CACHE)
+                        .name("ETag cache")
+                        .description("Keep commit comments and diffs with their ETag on disk, in the diff cache " +
+                                "directory, so that following analyses send conditional requests and reuse them " +
+                                "when they did not change. Its maximum size is the diff cache size.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue(String.valueOf(false))
+                        .index(30)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_THREADS)
+                        .name("GitLab API threads")
+                        .description("Threads calling GitLab API: platform for a pool of regular threads, virtual " +
+                                "for virtual threads when the scanner runs on Java 21 or later, platform threads " +
+                                "otherwise. Virtual threads make a high API concurrency cheap.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options(THREADS)
+                        .defaultValue(PLATFORM_THREADS)
+                        .index(31)
+                        .build(),
+                PropertyDefinition
+                        .builder(GITLAB_API_INIT_TIMEOUT)
+                        .name("GitLab API init timeout")
+                        .description("Timeout in seconds of all GitLab API requests fetching the diffs, comments " +
+                                "and authors of the revisions before issues are processed, 0 for no timeout.")
+                        .category(CATEGORY)
+                        .subCategory(INSTANCE_SUBCATEGORY)
+                        .type(PropertyType.INTEGER)
+                        .defaultValue(String.valueOf(0))
+                        .index(32)
                         .build()
         );
     }
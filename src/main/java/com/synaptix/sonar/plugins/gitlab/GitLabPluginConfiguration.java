@@ -101,4 +101,89 @@ public class GitLabPluginConfiguration {
     boolean pingUser() {
         return settings.getBoolean(GitLabPlugin.GITLAB_PING_USER);
     }
+
+    int apiConcurrency() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_CONCURRENCY);
+    }
+
+    int apiTimeout() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_TIMEOUT);
+    }
+
+    int apiInitTimeout() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_INIT_TIMEOUT);
+    }
+
+    int apiMaxRetries() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_MAX_RETRIES);
+    }
+
+    int apiRateLimit() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_RATE_LIMIT);
+    }
+
+    boolean isMergeRequestReview() {
+        return GitLabPlugin.MERGE_REQUEST_REVIEW_MODE.equals(settings.getString(GitLabPlugin.GITLAB_COMMENT_MODE));
+    }
+
+    @CheckForNull
+    String mergeRequestIid() {
+        return settings.getString(GitLabPlugin.GITLAB_MERGE_REQUEST_IID);
+    }
+
+    String commentAggregation() {
+        return settings.hasKey(GitLabPlugin.GITLAB_COMMENT_AGGREGATION)
+                ? settings.getString(GitLabPlugin.GITLAB_COMMENT_AGGREGATION)
+                : GitLabPlugin.NO_AGGREGATION;
+    }
+
+    int commentAggregationWindow() {
+        return settings.getInt(GitLabPlugin.GITLAB_COMMENT_AGGREGATION_WINDOW);
+    }
+
+    boolean diffCache() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_DIFF_CACHE);
+    }
+
+    @CheckForNull
+    String diffCacheDir() {
+        return settings.getString(GitLabPlugin.GITLAB_DIFF_CACHE_DIR);
+    }
+
+    int diffCacheSize() {
+        return settings.getInt(GitLabPlugin.GITLAB_DIFF_CACHE_SIZE);
+    }
+
+    boolean incremental() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_INCREMENTAL);
+    }
+
+    boolean isCompareDiff() {
+        return GitLabPlugin.COMPARE_DIFF_MODE.equals(settings.getString(GitLabPlugin.GITLAB_DIFF_MODE));
+    }
+
+    int issueParallelism() {
+        int parallelism = settings.getInt(GitLabPlugin.GITLAB_ISSUE_PARALLELISM);
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    boolean metricsReport() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_METRICS_REPORT);
+    }
+
+    String apiTransport() {
+        return settings.getString(GitLabPlugin.GITLAB_API_TRANSPORT);
+    }
+
+    int apiConnectTimeout() {
+        return settings.getInt(GitLabPlugin.GITLAB_API_CONNECT_TIMEOUT);
+    }
+
+    boolean etagCache() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_ETAG_CACHE);
+    }
+
+    String apiThreads() {
+        return settings.getString(GitLabPlugin.GITLAB_API_THREADS);
+    }
 }
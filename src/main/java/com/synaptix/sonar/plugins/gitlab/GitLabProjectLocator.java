@@ -0,0 +1,224 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.gitlab.api.GitlabAPIException;
+import org.gitlab.api.Pagination;
+import org.gitlab.api.models.GitlabProject;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Find the GitLab project of {@code sonar.gitlab.project_id}, which may be an id, a path with namespace, a web,
+ * http or ssh url, or a name with namespace.
+ * <p>
+ * Every form but the name is turned into a path with namespace for a direct lookup. Projects are only searched, by
+ * name, page by page and until one matches, as a last resort. Resolved ids are kept in a local file so that
+ * following analyses only need a lookup by id.
+ */
+class GitLabProjectLocator {
+
+    private static final Logger logger = Loggers.get(GitLabProjectLocator.class);
+
+    private static final Pattern URL_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*://[^/]+/(.+)");
+
+    private static final Pattern SCP_PATTERN = Pattern.compile("[^@/\\s]+@[^:/\\s]+:(.+)");
+
+    private static final String NAME_SEPARATOR = " / ";
+
+    private final GitLabRestApi gitLabApi;
+
+    private final GitLabApiGuard guard;
+
+    private final String gitLabUrl;
+
+    private final Path cacheFile;
+
+    /**
+     * @param cacheFile file of resolved ids, {@code null} to disable the cache.
+     */
+    GitLabProjectLocator(GitLabRestApi gitLabApi, GitLabApiGuard guard, String gitLabUrl, @Nullable Path cacheFile) {
+        this.gitLabApi = gitLabApi;
+        this.guard = guard;
+        this.gitLabUrl = gitLabUrl;
+        this.cacheFile = cacheFile;
+    }
+
+    GitlabProject locate(String projectId) throws IOException {
+        String cacheKey = gitLabUrl + " " + projectId;
+        Properties cache = loadCache();
+        String cachedId = cache.getProperty(cacheKey);
+        if (cachedId != null) {
+            GitlabProject project = find(cachedId);
+            if (project != null && isMatchingProject(projectId, project)) {
+                return project;
+            }
+            logger.debug("Ignore stale cached id {} of project {}", cachedId, projectId);
+        }
+
+        String path = namespacePath(projectId, gitLabUrl);
+        GitlabProject project = path != null ? find(path) : null;
+        if (project == null || !isMatchingProject(projectId, project)) {
+            project = search(projectId);
+        }
+        if (project == null) {
+            throw new IllegalStateException("Unable to found project for " + projectId);
+        }
+        if (!String.valueOf(project.getId()).equals(cachedId)) {
+            cache.setProperty(cacheKey, String.valueOf(project.getId()));
+            storeCache(cache);
+        }
+        return project;
+    }
+
+    /**
+     * @return path with namespace, or id, of a project id given in any form, {@code null} for a name with
+     * namespace since names may differ from paths.
+     */
+    @CheckForNull
+    static String namespacePath(String projectId, @Nullable String gitLabUrl) {
+        String path = projectId.trim();
+        String baseUrl = gitLabUrl == null ? null : gitLabUrl.replaceAll("/+$", "") + "/";
+        Matcher url = URL_PATTERN.matcher(path);
+        Matcher scp = SCP_PATTERN.matcher(path);
+        if (baseUrl != null && path.startsWith(baseUrl)) {
+            path = path.substring(baseUrl.length());
+        } else if (url.matches()) {
+            path = url.group(1);
+        } else if (scp.matches()) {
+            path = scp.group(1);
+        } else if (path.contains(NAME_SEPARATOR)) {
+            return null;
+        }
+        int subPage = path.indexOf("/-/");
+        if (subPage >= 0) {
+            path = path.substring(0, subPage);
+        }
+        path = path.replaceAll("^/+|/+$", "");
+        if (path.endsWith(".git")) {
+            path = path.substring(0, path.length() - ".git".length());
+        }
+        return path.isEmpty() ? null : path;
+    }
+
+    static boolean isMatchingProject(String projectId, GitlabProject project) {
+        return projectId.equals(project.getId().toString())
+                || projectId.equals(project.getPathWithNamespace())
+                || projectId.equals(project.getHttpUrl())
+                || projectId.equals(project.getSshUrl())
+                || projectId.equals(project.getWebUrl())
+                || projectId.equals(project.getNameWithNamespace())
+                || project.getPathWithNamespace() != null
+                && project.getPathWithNamespace().equals(namespacePath(projectId, null));
+    }
+
+    @CheckForNull
+    private GitlabProject find(String idOrPath) throws IOException {
+        try {
+            return guard.call("project", true, () -> gitLabApi.getProject(idOrPath));
+        } catch (GitlabAPIException e) {
+            if (e.getResponseCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Search projects by their last name or path segment, stop at the first page holding a matching project.
+     */
+    @CheckForNull
+    private GitlabProject search(String projectId) throws IOException {
+        String term = searchTerm(projectId);
+        logger.info("Project {} not found by path, searching projects matching '{}'", projectId, term);
+        for (int page = 1; ; page++) {
+            Pagination pagination = new Pagination();
+            pagination.setPage(page);
+            pagination.setPerPage(Pagination.MAX_ITEMS_PER_PAGE);
+            List<GitlabProject> projects = guard.call("projects", true,
+                    () -> gitLabApi.searchProjects(term, pagination));
+            Optional<GitlabProject> project = projects.stream()
+                                                      .filter(p -> isMatchingProject(projectId, p))
+                                                      .findFirst();
+            if (project.isPresent() || projects.size() < Pagination.MAX_ITEMS_PER_PAGE) {
+                return project.orElse(null);
+            }
+        }
+    }
+
+    private static String searchTerm(String projectId) {
+        String path = namespacePath(projectId, null);
+        String term = path != null ? path : projectId;
+        int separator = path != null ? term.lastIndexOf('/') : term.lastIndexOf(NAME_SEPARATOR);
+        return separator < 0 ? term.trim()
+                : term.substring(separator + (path != null ? 1 : NAME_SEPARATOR.length())).trim();
+    }
+
+    private Properties loadCache() {
+        Properties cache = new Properties();
+        if (cacheFile != null) {
+            try (InputStream input = Files.newInputStream(cacheFile)) {
+                cache.load(input);
+            } catch (NoSuchFileException e) {
+                // first analysis
+            } catch (IOException e) {
+                logger.debug("Ignore unreadable project cache {}: {}", cacheFile, e.toString());
+            }
+        }
+        return cache;
+    }
+
+    private void storeCache(Properties cache) {
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                cache.store(output, "GitLab project ids");
+            }
+            try {
+                Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to write project cache {}: {}", cacheFile, e.toString());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.gitlab.api.Pagination;
+import org.gitlab.api.http.Query;
+import org.gitlab.api.models.CommitComment;
+import org.gitlab.api.models.GitlabCommit;
+import org.gitlab.api.models.GitlabCommitComparison;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.gitlab.api.models.GitlabCommitStatus;
+import org.gitlab.api.models.GitlabProject;
+import org.gitlab.api.models.GitlabUser;
+
+/**
+ * GitLab API endpoints used by the plugin, with the same path in API v3 and v4, mapped to java-gitlab-api models as
+ * {@link org.gitlab.api.GitlabAPI} does, but sent through a {@link GitLabRestClient} so that they share its
+ * {@link GitLabTransport}.
+ * <p>
+ * Commit diffs and comments, fetched again by every analysis of the same commits, are conditional requests.
+ */
+class GitLabRestApi {
+
+    private final GitLabRestClient client;
+
+    GitLabRestApi(GitLabRestClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param idOrPath id, or path with namespace.
+     */
+    GitlabProject getProject(Serializable idOrPath) throws IOException {
+        return client.get(projectUrl(idOrPath), GitlabProject.class);
+    }
+
+    List<GitlabProject> searchProjects(String search, Pagination pagination) throws IOException {
+        Query query = new Query().append("search", search);
+        query.mergeWith(pagination.asQuery());
+        return Arrays.asList(client.get(GitlabProject.URL + query, GitlabProject[].class));
+    }
+
+    GitlabCommit getCommit(Serializable projectId, String sha) throws IOException {
+        return client.get(commitUrl(projectId, sha), GitlabCommit.class);
+    }
+
+    GitLabRestClient.Page<GitlabCommitDiff> getCommitDiffs(Serializable projectId, String sha,
+            Pagination pagination) throws IOException {
+        return client.getPage(commitUrl(projectId, sha) + "/diff" + pagination.asQuery(), GitlabCommitDiff[].class);
+    }
+
+    GitlabCommitComparison compareCommits(Serializable projectId, String from, String to) throws IOException {
+        Query query = new Query().append("from", from).append("to", to);
+        return client.get(projectUrl(projectId) + "/repository/compare" + query, GitlabCommitComparison.class);
+    }
+
+    List<GitlabCommitStatus> getCommitStatuses(Serializable projectId, String sha, Pagination pagination)
+            throws IOException {
+        return Arrays.asList(client.get(commitUrl(projectId, sha) + GitlabCommitStatus.URL + pagination.asQuery(),
+                GitlabCommitStatus[].class));
+    }
+
+    GitLabRestClient.Page<CommitComment> getCommitComments(Serializable projectId, String sha,
+            Pagination pagination) throws IOException {
+        return client.getPage(commitUrl(projectId, sha) + CommitComment.URL + pagination.asQuery(),
+                CommitComment[].class);
+    }
+
+    List<GitlabUser> findUsers(String emailOrUsername) throws IOException {
+        return Arrays.asList(client.get(GitlabUser.URL + new Query().append("search", emailOrUsername),
+                GitlabUser[].class));
+    }
+
+    /**
+     * Parameters are sent as a JSON body rather than in the query string, so long notes are not limited by the
+     * length of an url.
+     */
+    CommitComment createCommitComment(Serializable projectId, String sha, String note, @Nullable String path,
+            @Nullable String line, @Nullable String lineType) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("note", note);
+        putIfNotNull(body, "path", path);
+        putIfNotNull(body, "line", line);
+        putIfNotNull(body, "line_type", lineType);
+        return client.post(commitUrl(projectId, sha) + CommitComment.URL, body, CommitComment.class);
+    }
+
+    GitlabCommitStatus createCommitStatus(Serializable projectId, String sha, String state, @Nullable String ref,
+            String name, @Nullable String targetUrl, @Nullable String description) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("state", state);
+        putIfNotNull(body, "ref", ref);
+        body.put("name", name);
+        putIfNotNull(body, "target_url", targetUrl);
+        putIfNotNull(body, "description", description);
+        return client.post(projectUrl(projectId) + GitlabCommitStatus.URL + "/" + sha, body,
+                GitlabCommitStatus.class);
+    }
+
+    private static String projectUrl(Serializable idOrPath) throws IOException {
+        return GitlabProject.URL + "/" + URLEncoder.encode(String.valueOf(idOrPath), StandardCharsets.UTF_8.name());
+    }
+
+    private static String commitUrl(Serializable projectId, String sha) throws IOException {
+        return projectUrl(projectId) + "/repository" + GitlabCommit.URL + "/" + sha;
+    }
+
+    private static void putIfNotNull(Map<String, Object> body, String name, @Nullable Object value) {
+        if (value != null) {
+            body.put(name, value);
+        }
+    }
+}
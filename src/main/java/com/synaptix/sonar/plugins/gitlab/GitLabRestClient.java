@@ -0,0 +1,265 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.GitlabAPIException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Minimal JSON client for GitLab API, over a {@link GitLabTransport} shared by every client of an analysis.
+ * <p>
+ * Errors are reported as {@link GitlabAPIException} with the HTTP status, like java-gitlab-api does, so that
+ * {@link GitLabApiGuard} handles every call the same way. The rate limit GitLab announces in {@code RateLimit-*}
+ * headers of every response is passed to a {@link RateLimitListener}.
+ */
+class GitLabRestClient {
+
+    static final String API_V3 = "/api/v3";
+
+    static final String API_V4 = "/api/v4";
+
+    private static final String TOKEN_HEADER = "PRIVATE-TOKEN";
+
+    private static final int PER_PAGE = 100;
+
+    private static final int NOT_MODIFIED = 304;
+
+    private final String apiUrl;
+
+    private final String token;
+
+    private final GitLabTransport transport;
+
+    private final ETagCache etagCache;
+
+    private final GitLabMetrics metrics;
+
+    private final RateLimitListener rateLimitListener;
+
+    /**
+     * @param namespace         {@link #API_V3} or {@link #API_V4}.
+     * @param etagCache         cache of conditional requests, {@code null} to always get full responses.
+     * @param rateLimitListener told about the remaining requests after each response, see
+     *                          {@link GitLabApiGuard#onRateLimit}.
+     */
+    GitLabRestClient(String url, String namespace, @Nullable String token, GitLabTransport transport,
+            @Nullable ETagCache etagCache, GitLabMetrics metrics, RateLimitListener rateLimitListener) {
+        this.apiUrl = (url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + namespace;
+        this.token = token;
+        this.transport = transport;
+        this.etagCache = etagCache;
+        this.metrics = metrics;
+        this.rateLimitListener = rateLimitListener;
+    }
+
+    JsonNode get(String tail) throws IOException {
+        return readTree(request("GET", tail, null));
+    }
+
+    <T> T get(String tail, Class<T> type) throws IOException {
+        return GitlabAPI.MAPPER.readValue(request("GET", tail, null).body(), type);
+    }
+
+    /**
+     * Get a single page of a list endpoint, with {@code If-None-Match} the ETag of the cached response, if any, and
+     * reuse the cached body when GitLab answers {@code 304 Not Modified}.
+     */
+    <T> Page<T> getPage(String tail, Class<T[]> type) throws IOException {
+        if (etagCache == null) {
+            GitLabTransport.Response response = request("GET", tail, null);
+            return new Page<>(GitlabAPI.MAPPER.readValue(response.body(), type), response.header("X-Next-Page"),
+                    response.body());
+        }
+        String url = apiUrl + tail;
+        ETagCache.Entry cached = etagCache.get(url, token);
+        GitLabTransport.Response response = request("GET", tail, null,
+                cached != null ? Collections.singletonMap("If-None-Match", cached.etag()) : Collections.emptyMap());
+        byte[] body;
+        if (cached != null && response.code() == NOT_MODIFIED) {
+            metrics.increment(GitLabMetrics.API_NOT_MODIFIED);
+            body = cached.body();
+        } else {
+            body = response.body();
+            String etag = response.header("ETag");
+            if (etag != null) {
+                etagCache.put(url, token, etag, body);
+            }
+        }
+        return new Page<>(GitlabAPI.MAPPER.readValue(body, type), response.header("X-Next-Page"), body);
+    }
+
+    /**
+     * Get every page of a list endpoint, following {@code X-Next-Page}.
+     */
+    List<JsonNode> getAll(String tail) throws IOException {
+        List<JsonNode> result = new ArrayList<>();
+        String separator = tail.contains("?") ? "&" : "?";
+        String page = "1";
+        while (page != null && !page.isEmpty()) {
+            GitLabTransport.Response response = request("GET", tail + separator + "per_page=" + PER_PAGE + "&page="
+                    + page, null);
+            readTree(response).forEach(result::add);
+            page = response.header("X-Next-Page");
+        }
+        return result;
+    }
+
+    JsonNode post(String tail, @Nullable Object body) throws IOException {
+        return readTree(request("POST", tail, body));
+    }
+
+    <T> T post(String tail, @Nullable Object body, Class<T> type) throws IOException {
+        return GitlabAPI.MAPPER.readValue(request("POST", tail, body).body(), type);
+    }
+
+    private GitLabTransport.Response request(String method, String tail, @Nullable Object body) throws IOException {
+        return request(method, tail, body, Collections.emptyMap());
+    }
+
+    private GitLabTransport.Response request(String method, String tail, @Nullable Object body,
+            Map<String, String> extraHeaders) throws IOException {
+        Map<String, String> headers = new HashMap<>(extraHeaders);
+        headers.put("Accept", "application/json");
+        if (token != null) {
+            headers.put(TOKEN_HEADER, token);
+        }
+        if (body != null) {
+            headers.put("Content-Type", "application/json");
+        }
+        GitLabTransport.Response response = transport.send(method, apiUrl + tail, headers,
+                body != null ? GitlabAPI.MAPPER.writeValueAsBytes(body) : null);
+        metrics.add(GitLabMetrics.API_BYTES, response.body().length);
+        notifyRateLimit(response);
+        if (response.code() >= 400) {
+            String message = new String(response.body(), StandardCharsets.UTF_8);
+            throw new GitLabHttpException(message.isEmpty() ? method + " " + tail + " returned " + response.code()
+                    : message, response.code(), retryAfterMillis(response.header("Retry-After")), null);
+        }
+        return response;
+    }
+
+    /**
+     * {@code RateLimit-Reset} is the epoch second the quota is restored at, sent along {@code RateLimit-Remaining}.
+     */
+    private void notifyRateLimit(GitLabTransport.Response response) {
+        String remaining = response.header("RateLimit-Remaining");
+        String reset = response.header("RateLimit-Reset");
+        if (remaining == null || reset == null) {
+            return;
+        }
+        try {
+            rateLimitListener.onRateLimit(Long.parseLong(remaining.trim()),
+                    Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim())) - System.currentTimeMillis()));
+        } catch (NumberFormatException e) {
+            // Not GitLab rate limit headers
+        }
+    }
+
+    /**
+     * @param retryAfter delay in seconds or HTTP date, see RFC 7231.
+     * @return delay in milliseconds, negative if absent or invalid.
+     */
+    static long retryAfterMillis(@Nullable String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e2) {
+                return -1;
+            }
+        }
+    }
+
+    private static JsonNode readTree(GitLabTransport.Response response) throws IOException {
+        return response.body().length == 0 ? MissingNode.getInstance() : GitlabAPI.MAPPER.readTree(response.body());
+    }
+
+    @FunctionalInterface
+    interface RateLimitListener {
+
+        /**
+         * @param remaining   requests GitLab still accepts until the reset.
+         * @param resetMillis delay until GitLab restores the quota.
+         */
+        void onRateLimit(long remaining, long resetMillis);
+    }
+
+    /**
+     * Items of a page of a list endpoint, with what is needed to know whether another page follows.
+     */
+    static final class Page<T> {
+
+        private final List<T> items;
+
+        private final String nextPage;
+
+        private final byte[] body;
+
+        Page(T[] items, @Nullable String nextPage, byte[] body) {
+            this.items = Arrays.asList(items);
+            this.nextPage = nextPage;
+            this.body = body;
+        }
+
+        List<T> items() {
+            return items;
+        }
+
+        /**
+         * @return {@code X-Next-Page} header, empty on the last page, {@code null} when GitLab did not send it, e.g.
+         * for lists too long to be counted.
+         */
+        @CheckForNull
+        String nextPage() {
+            return nextPage;
+        }
+
+        /**
+         * @return raw JSON of the page, to tell a repeated page apart from a new one.
+         */
+        byte[] body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * HTTP exchanges with GitLab. Implementations keep connections open between requests, ask for gzip responses and
+ * may be used by several threads at once, see {@link GitLabTransports#create}.
+ */
+interface GitLabTransport {
+
+    /**
+     * @param headers request headers, in addition to the ones of the transport.
+     * @param body    JSON body, {@code null} for none.
+     * @return response of any status, with a decompressed body.
+     */
+    Response send(String method, String url, Map<String, String> headers, @Nullable byte[] body) throws IOException;
+
+    /**
+     * @return protocol, for logs.
+     */
+    String protocol();
+
+    class Response {
+
+        private final int code;
+
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private final byte[] body;
+
+        /**
+         * @param headers first value of every response header, by name.
+         */
+        Response(int code, Map<String, String> headers, byte[] body) {
+            this.code = code;
+            this.headers.putAll(headers);
+            this.body = body;
+        }
+
+        int code() {
+            return code;
+        }
+
+        @CheckForNull
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        byte[] body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Transports used to call GitLab API.
+ */
+final class GitLabTransports {
+
+    private static final Logger logger = Loggers.get(GitLabTransports.class);
+
+    /**
+     * Built from {@code src/main/java11}, which requires to build the plugin on Java 11 or later, and only loaded when
+     * the scanner runs on Java 11 or later.
+     */
+    private static final String HTTP_CLIENT_TRANSPORT = "com.synaptix.sonar.plugins.gitlab.HttpClientTransport";
+
+    private GitLabTransports() {
+    }
+
+    /**
+     * Create a transport of the given mode, see {@link GitLabPlugin#GITLAB_API_TRANSPORT}: in auto mode, HTTP/2 with
+     * {@code java.net.http} when the runtime provides it and certificates are checked, keep-alive HTTP/1.1 with
+     * {@link java.net.HttpURLConnection} otherwise.
+     *
+     * @param connectTimeoutMillis timeout of a connection, 0 for no timeout.
+     * @param readTimeoutMillis    timeout of a response, 0 for no timeout.
+     */
+    static GitLabTransport create(String mode, boolean ignoreSSL, int connectTimeoutMillis, int readTimeoutMillis) {
+        GitLabTransport transport = null;
+        if (GitLabPlugin.AUTO_TRANSPORT.equals(mode)) {
+            if (ignoreSSL) {
+                logger.debug("Certificate checks cannot be disabled with HTTP/2 transport, using HTTP/1.1");
+            } else {
+                transport = newHttpClientTransport(connectTimeoutMillis, readTimeoutMillis);
+            }
+        }
+        if (transport == null) {
+            transport = new UrlConnectionTransport(ignoreSSL, connectTimeoutMillis, readTimeoutMillis);
+        }
+        logger.info("GitLab API transport: {}", transport.protocol());
+        return transport;
+    }
+
+    @CheckForNull
+    private static GitLabTransport newHttpClientTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        try {
+            Class.forName("java.net.http.HttpClient");
+            return (GitLabTransport) Class.forName(HTTP_CLIENT_TRANSPORT)
+                                          .getDeclaredConstructor(int.class, int.class)
+                                          .newInstance(connectTimeoutMillis, readTimeoutMillis);
+        } catch (ClassNotFoundException e) {
+            logger.debug("HTTP/2 transport not available: {}", e.getMessage());
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create HTTP/2 transport", e);
+        }
+    }
+
+    /**
+     * Read a response body until its end, which lets the connection be reused.
+     *
+     * @param contentEncoding {@code Content-Encoding} header of the response.
+     */
+    static byte[] readBody(@Nullable InputStream input, @Nullable String contentEncoding) throws IOException {
+        if (input == null) {
+            return new byte[0];
+        }
+        byte[] body;
+        try (InputStream in = input) {
+            body = readFully(in);
+        }
+        if (body.length > 0 && "gzip".equalsIgnoreCase(contentEncoding)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = readFully(in);
+            }
+        }
+        return body;
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
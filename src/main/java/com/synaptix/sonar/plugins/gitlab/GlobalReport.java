@@ -23,51 +23,116 @@ import org.sonar.api.batch.postjob.issue.PostJobIssue;
 import org.sonar.api.batch.rule.Severity;
 
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nullable;
 
 import static com.synaptix.sonar.plugins.gitlab.MarkDownUtils.*;
 
+/**
+ * Summary of the analysis for the global comment and the commit status.
+ * <p>
+ * Only counters and the {@code maxGlobalIssues} most severe unreachable issues are kept, markdown is formatted
+ * when the report is rendered.
+ * <p>
+ * Report can be updated concurrently: counters are {@link LongAdder}s and unreachable issues a skip list, trimmed
+ * without lock. Issues are ordered by the sequence given by caller, so the report does not depend on thread
+ * scheduling.
+ */
 class GlobalReport {
 
     private static final String SUCCESS_STATUS = "success";
 
     private static final String FAILED_STATUS = "failed";
 
+    private static final Severity[] SEVERITIES = Severity.values();
+
+    /**
+     * Most severe first, then in reporting order.
+     */
+    private static final Comparator<UnreachableIssue> REPORT_ORDER = Comparator
+            .comparingInt((UnreachableIssue i) -> -i.issue.severity().ordinal())
+            .thenComparingLong(i -> i.sequence);
+
     private final GitLabPluginConfiguration configuration;
 
     private final MarkDownUtils markDownUtils;
 
-    private Map<Severity, Integer> numberOfIssuesBySeverity = Arrays
-            .stream(Severity.values())
-            .collect(Collectors.toMap(Function.identity(), e -> 0));
+    private final int maxGlobalIssues;
+
+    private final LongAdder[] numberOfIssuesBySeverity = new LongAdder[SEVERITIES.length];
+
+    private final LongAdder numberOfIssues = new LongAdder();
+
+    private final LongAdder numberOfUnreachableIssues = new LongAdder();
+
+    private final AtomicLong sequence = new AtomicLong();
 
-    private Map<Severity, List<String>> unreachableIssuesBySeverity = new HashMap<>();
+    /**
+     * Unreachable issues in report order, the last one is the one to evict first.
+     */
+    private final ConcurrentSkipListSet<UnreachableIssue> unreachableIssues = new ConcurrentSkipListSet<>(REPORT_ORDER);
+
+    /**
+     * Number of unreachable issues added and not evicted yet, ahead of the set size while an eviction is pending.
+     */
+    private final AtomicInteger keptIssues = new AtomicInteger();
 
     GlobalReport(GitLabPluginConfiguration configuration, MarkDownUtils markDownUtils) {
         this.configuration = configuration;
         this.markDownUtils = markDownUtils;
+        this.maxGlobalIssues = Math.max(0, configuration.maxGlobalIssues());
+        for (int i = 0; i < SEVERITIES.length; i++) {
+            numberOfIssuesBySeverity[i] = new LongAdder();
+        }
     }
 
     boolean hasNewIssues() {
-        return numberOfIssuesBySeverity.values().stream().mapToInt(Integer::intValue).sum() > 0;
+        return numberOfIssues.sum() > 0;
     }
 
+    /**
+     * Update report with an issue, in reporting order.
+     */
     void update(PostJobIssue issue, @Nullable String gitLabUrl, boolean skip) {
-        numberOfIssuesBySeverity.computeIfPresent(issue.severity(), (k, v) -> v + 1);
+        update(sequence.incrementAndGet(), issue, gitLabUrl, skip);
+    }
+
+    /**
+     * Update report with an issue, possibly concurrently.
+     *
+     * @param sequence unique rank of the issue, unreachable issues of same severity are reported by rank.
+     */
+    void update(long sequence, PostJobIssue issue, @Nullable String gitLabUrl, boolean skip) {
+        numberOfIssuesBySeverity[issue.severity().ordinal()].increment();
+        numberOfIssues.increment();
         if (!skip) {
-            List<String> reports = unreachableIssuesBySeverity.computeIfAbsent(issue.severity(), k -> new ArrayList<>());
+            numberOfUnreachableIssues.increment();
+            if (maxGlobalIssues > 0) {
+                unreachableIssues.add(new UnreachableIssue(issue, gitLabUrl, sequence));
+                evictLeastSevere(keptIssues.incrementAndGet());
+            }
+        }
+    }
 
-            String comment = markDownUtils.globalIssue(issue.severity(), issue.message(), issue.ruleKey().toString(),
-                    gitLabUrl, issue.componentKey());
-            reports.add("* " + comment);
+    /**
+     * Each issue added beyond {@code maxGlobalIssues} evicts exactly one issue. Reserving the eviction before
+     * polling guarantees that more than {@code maxGlobalIssues} issues are present when the last one is removed.
+     */
+    private void evictLeastSevere(int kept) {
+        int current = kept;
+        while (current > maxGlobalIssues) {
+            if (keptIssues.compareAndSet(current, current - 1)) {
+                unreachableIssues.pollLast();
+                return;
+            }
+            current = keptIssues.get();
         }
     }
 
@@ -77,20 +142,22 @@ class GlobalReport {
         if (hasNewIssues()) {
             report.append("\nWatch the comments in this conversation to review them.");
         }
-        int numberOfUnreachableIssues = unreachableIssuesBySeverity.values().stream().mapToInt(List::size).sum();
-        if (numberOfUnreachableIssues > 0) {
+        long unreachable = numberOfUnreachableIssues.sum();
+        if (unreachable > 0) {
             report.append("\nNote: the following issues could not be reported as comments " +
                     "because they are located on lines that are not displayed in this commit:\n");
 
-            report.append(unreachableIssuesBySeverity
-                    .values()
-                    .stream()
-                    .flatMap(List::stream)
-                    .limit(configuration.maxGlobalIssues())
-                    .collect(Collectors.joining("\n")));
-            if (numberOfUnreachableIssues > configuration.maxGlobalIssues()) {
+            StringJoiner comments = new StringJoiner("\n");
+            Iterator<UnreachableIssue> issues = unreachableIssues.iterator();
+            for (int n = 0; n < maxGlobalIssues && issues.hasNext(); n++) {
+                UnreachableIssue i = issues.next();
+                comments.add("* " + markDownUtils.globalIssue(i.issue.severity(), i.issue.message(),
+                        i.issue.ruleKey().toString(), i.gitLabUrl, i.issue.componentKey()));
+            }
+            report.append(comments);
+            if (unreachable > configuration.maxGlobalIssues()) {
                 report.append("\n* ... ")
-                      .append(numberOfUnreachableIssues - configuration.maxGlobalIssues())
+                      .append(unreachable - configuration.maxGlobalIssues())
                       .append(" more\n");
             }
         }
@@ -100,18 +167,18 @@ class GlobalReport {
     String getStatusDescription() {
         String report = "no issues";
 
-        int numberOfIssues = numberOfIssuesBySeverity.values().stream().mapToInt(Integer::intValue).sum();
-        if (numberOfIssues > 0) {
-            String reportForSeverities = numberOfIssuesBySeverity
-                    .entrySet()
-                    .stream()
-                    .filter(e -> e.getKey().equals(Severity.CRITICAL) || e.getKey().equals(Severity.BLOCKER))
-                    .filter(e -> e.getValue() > 0)
-                    .map(e -> String.format("%d %s", e.getValue(), e.getKey()))
-                    .collect(Collectors.joining(" and "));
+        long total = numberOfIssues.sum();
+        if (total > 0) {
+            StringJoiner reportForSeverities = new StringJoiner(" and ");
+            for (Severity severity : new Severity[] {Severity.BLOCKER, Severity.CRITICAL}) {
+                long count = numberOfIssuesBySeverity[severity.ordinal()].sum();
+                if (count > 0) {
+                    reportForSeverities.add(count + " " + severity);
+                }
+            }
 
             String template = "{0} {0,choice,1#issue|1<issues}, with {1}";
-            report = MessageFormat.format(template, numberOfIssues,
+            report = MessageFormat.format(template, total,
                     reportForSeverities.length() == 0 ? "no critical nor blocker issues" : reportForSeverities);
         }
 
@@ -119,29 +186,45 @@ class GlobalReport {
     }
 
     String getStatus() {
-        return (numberOfIssuesBySeverity.getOrDefault(Severity.BLOCKER, 0) > 0
-                    || numberOfIssuesBySeverity.getOrDefault(Severity.CRITICAL, 0) > 0)
+        return (numberOfIssuesBySeverity[Severity.BLOCKER.ordinal()].sum() > 0
+                    || numberOfIssuesBySeverity[Severity.CRITICAL.ordinal()].sum() > 0)
                 ? FAILED_STATUS
                 : SUCCESS_STATUS;
     }
 
     private String reportNewIssues() {
-        int numberOfIssues = numberOfIssuesBySeverity.values().stream().mapToInt(Integer::intValue).sum();
         String report = "no issues";
 
-        if (numberOfIssues > 0) {
+        long total = numberOfIssues.sum();
+        if (total > 0) {
             String template = "{0} {0,choice,1#issue|1<issues}:\n";
-            report = MessageFormat.format(template, numberOfIssues);
-            report += numberOfIssuesBySeverity
-                    .entrySet()
-                    .stream()
-                    .filter(e -> e.getValue() > 0)
-                    .map(e -> String.format("* %s %d %s\n",
-                            getEmojiForSeverity(e.getKey()), e.getValue(), e.getKey().name().toLowerCase()))
-                    .collect(Collectors.joining());
+            StringBuilder builder = new StringBuilder(MessageFormat.format(template, total));
+            for (int i = SEVERITIES.length - 1; i >= 0; i--) {
+                long count = numberOfIssuesBySeverity[i].sum();
+                if (count > 0) {
+                    builder.append("* ").append(getEmojiForSeverity(SEVERITIES[i])).append(' ').append(count)
+                           .append(' ').append(SEVERITIES[i].name().toLowerCase()).append('\n');
+                }
+            }
+            report = builder.toString();
         }
 
         return "SonarQube analysis reported " + report;
     }
 
+    private static class UnreachableIssue {
+
+        private final PostJobIssue issue;
+
+        private final String gitLabUrl;
+
+        private final long sequence;
+
+        private UnreachableIssue(PostJobIssue issue, @Nullable String gitLabUrl, long sequence) {
+            this.issue = issue;
+            this.gitLabUrl = gitLabUrl;
+            this.sequence = sequence;
+        }
+    }
+
 }
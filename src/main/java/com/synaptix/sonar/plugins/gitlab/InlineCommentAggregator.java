@@ -0,0 +1,160 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * Group issues to be commented inline so that each group becomes a single comment:
+ * <ul>
+ * <li>{@code line}: issues on the same revision, file and line,</li>
+ * <li>{@code rule}: issues of the same rule on the same revision and file, whose lines are within a window
+ * starting at the first line of the group.</li>
+ * </ul>
+ * Groups are returned in order of their first issue, comments are posted on the first line of the group.
+ */
+class InlineCommentAggregator {
+
+    static final String LINE_MODE = "line";
+
+    static final String RULE_MODE = "rule";
+
+    private static final Comparator<PostJobIssue> BY_LINE = Comparator.comparingInt(PostJobIssue::line);
+
+    private final boolean byRule;
+
+    private final int window;
+
+    private final Map<Key, List<PostJobIssue>> issuesByKey = new LinkedHashMap<>();
+
+    /**
+     * @param mode   {@value #LINE_MODE} or {@value #RULE_MODE}.
+     * @param window maximum distance in lines between the first and the last issue of a group in rule mode.
+     */
+    InlineCommentAggregator(String mode, int window) {
+        if (!LINE_MODE.equals(mode) && !RULE_MODE.equals(mode)) {
+            throw new IllegalArgumentException("Unknown aggregation mode: " + mode);
+        }
+        this.byRule = RULE_MODE.equals(mode);
+        this.window = byRule ? Math.max(0, window) : 0;
+    }
+
+    void add(String revision, InputFile inputFile, PostJobIssue issue) {
+        issuesByKey.computeIfAbsent(new Key(revision, inputFile, byRule ? issue.ruleKey() : null),
+                k -> new ArrayList<>()).add(issue);
+    }
+
+    List<Group> groups() {
+        List<Group> groups = new ArrayList<>();
+        issuesByKey.forEach((key, issues) -> {
+            issues.sort(BY_LINE);
+            Group group = null;
+            for (PostJobIssue issue : issues) {
+                if (group == null || issue.line() - group.line > window) {
+                    group = new Group(key.revision, key.inputFile, issue.line());
+                    groups.add(group);
+                }
+                group.issues.add(issue);
+            }
+        });
+        return groups;
+    }
+
+    static class Group {
+
+        private final String revision;
+
+        private final InputFile inputFile;
+
+        private final int line;
+
+        private final List<PostJobIssue> issues = new ArrayList<>();
+
+        private Group(String revision, InputFile inputFile, int line) {
+            this.revision = revision;
+            this.inputFile = inputFile;
+            this.line = line;
+        }
+
+        String revision() {
+            return revision;
+        }
+
+        InputFile inputFile() {
+            return inputFile;
+        }
+
+        int line() {
+            return line;
+        }
+
+        List<PostJobIssue> issues() {
+            return issues;
+        }
+
+        boolean spansSeveralLines() {
+            return issues.get(issues.size() - 1).line() != line;
+        }
+    }
+
+    private static class Key {
+
+        private final String revision;
+
+        private final InputFile inputFile;
+
+        private final RuleKey ruleKey;
+
+        private Key(String revision, InputFile inputFile, @Nullable RuleKey ruleKey) {
+            this.revision = revision;
+            this.inputFile = inputFile;
+            this.ruleKey = ruleKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return revision.equals(key.revision) && inputFile.equals(key.inputFile)
+                    && Objects.equals(ruleKey, key.ruleKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(revision, inputFile, ruleKey);
+        }
+    }
+}
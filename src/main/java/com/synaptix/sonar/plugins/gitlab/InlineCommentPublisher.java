@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Post inline comments on a bounded pool of workers, so issue processing only has to enqueue them.
+ * <p>
+ * No more than twice the concurrency comments can be pending: {@link #submit} blocks beyond that.
+ */
+class InlineCommentPublisher implements AutoCloseable {
+
+    private static final Logger logger = Loggers.get(InlineCommentPublisher.class);
+
+    private final GitLabApiFacade gitLabApiFacade;
+
+    private final ExecutorService executor;
+
+    private final Semaphore pending;
+
+    private final Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger submitted = new AtomicInteger();
+
+    private final AtomicInteger published = new AtomicInteger();
+
+    /**
+     * @param threads kind of threads posting comments, see {@link GitLabExecutors#newApiPool}.
+     */
+    InlineCommentPublisher(GitLabApiFacade gitLabApiFacade, int concurrency, String threads) {
+        this.gitLabApiFacade = gitLabApiFacade;
+        this.executor = GitLabExecutors.newApiPool(threads, concurrency, "gitlab-publisher");
+        this.pending = new Semaphore(Math.max(1, concurrency) * 2);
+    }
+
+    /**
+     * Enqueue an inline comment, blocking while too many comments are waiting to be posted.
+     *
+     * @throws IllegalStateException      if interrupted while waiting.
+     * @throws RejectedExecutionException once the publisher is completed or closed.
+     */
+    void submit(String revision, InputFile inputFile, int line, String body) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while publishing inline comments", e);
+        }
+        submitted.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    gitLabApiFacade.createInlineComment(revision, inputFile, line, body);
+                    published.incrementAndGet();
+                } catch (RuntimeException e) {
+                    logger.debug("Unable to create inline comment on {} at line {}", inputFile, line, e);
+                    failures.add(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            submitted.decrementAndGet();
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until every submitted comment is posted.
+     *
+     * @return number of posted comments.
+     * @throws IllegalStateException if at least one comment cannot be posted, holding all failures.
+     */
+    int awaitCompletion() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Waiting for inline comments to be posted ({}/{})",
+                        published.get() + failures.size(), submitted.get());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while publishing inline comments", e);
+        }
+
+        if (!failures.isEmpty()) {
+            List<RuntimeException> errors = new ArrayList<>(failures);
+            IllegalStateException exception = new IllegalStateException(String.format(
+                    "Unable to create %d inline comments (%d created)", errors.size(), published.get()),
+                    errors.get(0));
+            errors.stream().skip(1).forEach(exception::addSuppressed);
+            throw exception;
+        }
+        return published.get();
+    }
+
+    /**
+     * Stop posting comments, those not posted yet are abandoned. Does nothing once {@link #awaitCompletion} returned.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
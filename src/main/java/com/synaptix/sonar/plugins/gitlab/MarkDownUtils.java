@@ -24,6 +24,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -32,6 +33,7 @@ import javax.annotation.Nullable;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
 import org.sonar.api.batch.rule.Severity;
 import org.sonar.api.config.Settings;
 
@@ -45,6 +47,10 @@ public class MarkDownUtils {
 
     private static final String INLINE_ISSUE_WITH_AUTHOR_COMMENT_TEMPLATE = "%s %s %s %s";
 
+    private static final String AGGREGATED_ISSUES_COMMENT_TEMPLATE = "%s %d issues:";
+
+    private static final String AGGREGATED_ISSUES_WITH_AUTHOR_COMMENT_TEMPLATE = "%s %s %d issues:";
+
     private static final String GLOBAL_ISSUE_COMMENT_TEMPLATE = "%s %s (%s) %s";
 
     private static final String GLOBAL_ISSUE_WITH_URL_COMMENT_TEMPLATE = "%s [%s](%s) %s";
@@ -117,6 +123,45 @@ public class MarkDownUtils {
                 .orElseGet(() -> String.format(INLINE_ISSUE_COMMENT_TEMPLATE, emoji, message, ruleLink));
     }
 
+    /**
+     * Format several rule violations as a single inline comment, a single violation is formatted as
+     * {@link #inlineIssue(Severity, String, String, Optional)}.
+     *
+     * @param issues    issues to be displayed, in display order.
+     * @param withLines whether to prefix each issue with its line, when issues are on different lines.
+     * @return inline comment that will be posted to GitLab commit.
+     * @throws IllegalArgumentException if issues is empty.
+     */
+    String inlineIssues(List<PostJobIssue> issues, Optional<String> author, boolean withLines) {
+        if (issues.isEmpty()) {
+            throw new IllegalArgumentException("issues must not be empty");
+        }
+        if (issues.size() == 1) {
+            PostJobIssue issue = issues.get(0);
+            return inlineIssue(issue.severity(), issue.message(), issue.ruleKey().toString(), author);
+        }
+
+        Severity mostSevere = issues.get(0).severity();
+        for (PostJobIssue issue : issues) {
+            if (issue.severity().compareTo(mostSevere) > 0) {
+                mostSevere = issue.severity();
+            }
+        }
+        String emoji = getEmojiForSeverity(mostSevere);
+        StringBuilder comment = new StringBuilder(author
+                .map(s -> String.format(AGGREGATED_ISSUES_WITH_AUTHOR_COMMENT_TEMPLATE, emoji, "@" + s, issues.size()))
+                .orElseGet(() -> String.format(AGGREGATED_ISSUES_COMMENT_TEMPLATE, emoji, issues.size())));
+        for (PostJobIssue issue : issues) {
+            comment.append("\n* ");
+            if (withLines) {
+                comment.append("L").append(issue.line()).append(' ');
+            }
+            comment.append(String.format(INLINE_ISSUE_COMMENT_TEMPLATE, getEmojiForSeverity(issue.severity()),
+                    issue.message(), getRuleLink(issue.ruleKey().toString())));
+        }
+        return comment.toString();
+    }
+
     /**
      * Build an entry for the global issues / rule violations comment.
      *
@@ -0,0 +1,185 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Publish comments as a merge request review: every comment is created as a draft note, then all drafts are
+ * published at once, so GitLab sends a single notification for the whole analysis.
+ * <p>
+ * Draft notes are only part of GitLab API v4. Drafts left by an analysis that failed before publishing are reused:
+ * they are not drafted again, and published with the new ones.
+ */
+class MergeRequestReview {
+
+    private final GitLabRestClient client;
+
+    private final GitLabApiGuard guard;
+
+    private final String mergeRequestPath;
+
+    private final AtomicInteger drafts = new AtomicInteger();
+
+    private final Set<String> generalDrafts = ConcurrentHashMap.newKeySet();
+
+    private JsonNode diffRefs;
+
+    MergeRequestReview(GitLabRestClient client, GitLabApiGuard guard, int projectId, String mergeRequestIid) {
+        this.client = client;
+        this.guard = guard;
+        this.mergeRequestPath = "/projects/" + projectId + "/merge_requests/" + mergeRequestIid;
+    }
+
+    /**
+     * Fetch the diff references of the merge request, needed to position draft notes, and the pending drafts.
+     *
+     * @return notes and drafts already on the diff of the merge request.
+     * @throws IOException If any issue when fetching GitLab API.
+     */
+    List<Note> load() throws IOException {
+        JsonNode mergeRequest = guard.call("merge request", true, () -> client.get(mergeRequestPath));
+        diffRefs = mergeRequest.path("diff_refs");
+        if (!diffRefs.hasNonNull("head_sha")) {
+            throw new IllegalStateException("Unable to find diff refs of merge request " + mergeRequestPath);
+        }
+
+        List<Note> notes = new ArrayList<>();
+        for (JsonNode discussion : guard.call("merge request discussions", true,
+                () -> client.getAll(mergeRequestPath + "/discussions"))) {
+            for (JsonNode note : discussion.path("notes")) {
+                Note diffNote = diffNote(note.path("position"), note.path("body").asText());
+                if (diffNote != null) {
+                    notes.add(diffNote);
+                }
+            }
+        }
+        for (JsonNode draft : guard.call("merge request draft notes", true,
+                () -> client.getAll(mergeRequestPath + "/draft_notes"))) {
+            drafts.incrementAndGet();
+            Note diffNote = diffNote(draft.path("position"), draft.path("note").asText());
+            if (diffNote != null) {
+                notes.add(diffNote);
+            } else {
+                generalDrafts.add(draft.path("note").asText());
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * @param oldPath path of the file in the base of the merge request, differs from {@code path} if renamed.
+     */
+    void addDraft(String oldPath, String path, int line, String body) throws IOException {
+        Map<String, Object> position = new LinkedHashMap<>();
+        position.put("position_type", "text");
+        position.put("base_sha", diffRefs.path("base_sha").asText());
+        position.put("start_sha", diffRefs.path("start_sha").asText());
+        position.put("head_sha", diffRefs.path("head_sha").asText());
+        position.put("old_path", oldPath);
+        position.put("new_path", path);
+        position.put("new_line", line);
+
+        Map<String, Object> draft = new LinkedHashMap<>();
+        draft.put("note", body);
+        draft.put("position", position);
+        createDraft(draft);
+    }
+
+    /**
+     * Draft a note outside of the diff, unless the same one is already drafted.
+     */
+    void addDraft(String body) throws IOException {
+        if (!generalDrafts.add(body)) {
+            return;
+        }
+        Map<String, Object> draft = new LinkedHashMap<>();
+        draft.put("note", body);
+        try {
+            createDraft(draft);
+        } catch (IOException e) {
+            generalDrafts.remove(body);
+            throw e;
+        }
+    }
+
+    /**
+     * Publish all drafts with a single request.
+     *
+     * @return number of published drafts.
+     */
+    int publish() throws IOException {
+        int count = drafts.getAndSet(0);
+        if (count > 0) {
+            guard.call("publish merge request review", false,
+                    () -> client.post(mergeRequestPath + "/draft_notes/bulk_publish", null));
+        }
+        return count;
+    }
+
+    @CheckForNull
+    private static Note diffNote(JsonNode position, String body) {
+        return position.hasNonNull("new_path") && position.hasNonNull("new_line")
+                ? new Note(position.get("new_path").asText(), position.get("new_line").asInt(), body) : null;
+    }
+
+    private void createDraft(Map<String, Object> draft) throws IOException {
+        guard.call("merge request draft note", false, () -> client.post(mergeRequestPath + "/draft_notes", draft));
+        drafts.incrementAndGet();
+    }
+
+    static class Note {
+
+        private final String path;
+
+        private final int line;
+
+        private final String body;
+
+        private Note(String path, int line, String body) {
+            this.path = path;
+            this.line = line;
+            this.body = body;
+        }
+
+        String path() {
+            return path;
+        }
+
+        int line() {
+            return line;
+        }
+
+        String body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+/**
+ * Single pass parser of unified diffs.
+ * <p>
+ * GitLab expect review comments to be added on "patch lines" (aka position) but not on file lines.
+ * So we have to iterate over each patch and compute corresponding file line in order to later map issues
+ * to the correct position. Patch is scanned by index: no line, matcher or substring is allocated, added lines
+ * are only kept as hashes of their content.
+ */
+final class PatchParser {
+
+    private PatchParser() {
+    }
+
+    /**
+     * @param patch unified diff of a single file.
+     * @return added lines with their line number in the new file.
+     * @throws IllegalStateException if a chunk header cannot be parsed.
+     */
+    static PatchPositions parse(String patch) {
+        PatchPositions positions = new PatchPositions();
+
+        int length = patch.length();
+        int currentLine = -1;
+        int start = 0;
+        while (start < length) {
+            int end = patch.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                char first = patch.charAt(start);
+                if (first == '@') {
+                    currentLine = parseChunkHeader(patch, start, end);
+                } else if (first == '+') {
+                    int contentEnd = end > start + 1 && patch.charAt(end - 1) == '\r' ? end - 1 : end;
+                    positions.add(currentLine, ContentHash.of(patch, start + 1, contentEnd));
+                    currentLine++;
+                } else if (first == ' ') {
+                    // Can't comment line if not addition or deletion due to following bug
+                    // https://gitlab.com/gitlab-org/gitlab-ce/issues/26606
+                    currentLine++;
+                }
+            }
+            start = end + 1;
+        }
+
+        return positions;
+    }
+
+    /**
+     * Parse a chunk header like {@code @@ -12,7 +13,8 @@ optional section}.
+     *
+     * @return first line number of the chunk in the new file.
+     */
+    private static int parseChunkHeader(String patch, int start, int end) {
+        int i = expect(patch, start, start, end, '@');
+        i = expect(patch, i, start, end, '@');
+        i = expectWhitespace(patch, i, start, end);
+        i = expect(patch, i, start, end, '-');
+        i = skipRange(patch, i, start, end);
+        i = expectWhitespace(patch, i, start, end);
+        i = expect(patch, i, start, end, '+');
+
+        int newStart = 0;
+        int digitsStart = i;
+        while (i < end && isDigit(patch.charAt(i))) {
+            newStart = newStart * 10 + (patch.charAt(i) - '0');
+            i++;
+        }
+        if (i == digitsStart) {
+            throw parseError(patch, start, end);
+        }
+        if (i < end && patch.charAt(i) == ',') {
+            i = skipDigits(patch, i + 1, start, end);
+        }
+
+        i = expectWhitespace(patch, i, start, end);
+        i = expect(patch, i, start, end, '@');
+        expect(patch, i, start, end, '@');
+        return newStart;
+    }
+
+    private static int skipRange(String patch, int i, int start, int end) {
+        int next = skipDigits(patch, i, start, end);
+        if (next < end && patch.charAt(next) == ',') {
+            next = skipDigits(patch, next + 1, start, end);
+        }
+        return next;
+    }
+
+    private static int skipDigits(String patch, int i, int start, int end) {
+        int next = i;
+        while (next < end && isDigit(patch.charAt(next))) {
+            next++;
+        }
+        if (next == i) {
+            throw parseError(patch, start, end);
+        }
+        return next;
+    }
+
+    private static int expect(String patch, int i, int start, int end, char expected) {
+        if (i >= end || patch.charAt(i) != expected) {
+            throw parseError(patch, start, end);
+        }
+        return i + 1;
+    }
+
+    private static int expectWhitespace(String patch, int i, int start, int end) {
+        if (i >= end || !Character.isWhitespace(patch.charAt(i))) {
+            throw parseError(patch, start, end);
+        }
+        return i + 1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static IllegalStateException parseError(String patch, int start, int end) {
+        return new IllegalStateException("Unable to parse line:\n\t" + patch.substring(start, end)
+                + "\nFull patch: \n\t" + patch);
+    }
+}
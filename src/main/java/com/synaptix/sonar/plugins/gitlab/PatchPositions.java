@@ -0,0 +1,99 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Added lines of a patch, stored as parallel primitive arrays of line numbers and {@link ContentHash content hashes},
+ * with the path of the file before the patch when the patch renames it.
+ */
+class PatchPositions {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] lines;
+
+    private long[] hashes;
+
+    private int size;
+
+    private String oldPath;
+
+    PatchPositions() {
+        this(INITIAL_CAPACITY);
+    }
+
+    PatchPositions(int capacity) {
+        this.lines = new int[Math.max(1, capacity)];
+        this.hashes = new long[lines.length];
+    }
+
+    void add(int line, long hash) {
+        if (size == lines.length) {
+            int capacity = lines.length * 2;
+            lines = Arrays.copyOf(lines, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        lines[size] = line;
+        hashes[size] = hash;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return path of the file before the patch, {@code null} if the patch does not rename it.
+     */
+    @CheckForNull
+    String oldPath() {
+        return oldPath;
+    }
+
+    void setOldPath(@Nullable String oldPath) {
+        this.oldPath = oldPath;
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    long hash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * Lines are added in ascending order while a patch is parsed, so they can be binary searched.
+     */
+    boolean contains(int line, long hash) {
+        int index = Arrays.binarySearch(lines, 0, size, line);
+        return index >= 0 && hashes[index] == hash;
+    }
+
+    @Override
+    public String toString() {
+        return "PatchPositions{size=" + size + '}';
+    }
+}
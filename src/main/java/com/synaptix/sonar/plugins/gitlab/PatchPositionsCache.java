@@ -0,0 +1,221 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Disk cache of parsed commit diffs, one file per project and commit SHA. Diffs of a commit never change, so
+ * entries never expire, least recently used ones are evicted once the cache exceeds its maximum size.
+ * <p>
+ * The cache directory may be shared by analyses running in parallel: entries are written to a temporary file
+ * then atomically moved, and any unreadable entry is treated as a miss.
+ * <p>
+ * File format: magic, version, number of files, then for each file its path, its path before the commit or an empty
+ * string if not renamed, its number of added lines, the line numbers as zigzag varint deltas and the content hashes.
+ */
+class PatchPositionsCache {
+
+    private static final Logger logger = Loggers.get(PatchPositionsCache.class);
+
+    private static final int MAGIC = 0x474c5043;
+
+    private static final int VERSION = 1;
+
+    private static final String EXTENSION = ".bin";
+
+    /**
+     * A commit sha, or a {@code base..head} range for compared diffs.
+     */
+    private static final Pattern SHA_PATTERN = Pattern.compile("[0-9a-zA-Z]+(\\.\\.[0-9a-zA-Z]+)?");
+
+    private final Path directory;
+
+    private final long maxSizeBytes;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    PatchPositionsCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @return cached diffs as file path -> added lines, or {@code null} if not cached.
+     */
+    @CheckForNull
+    Map<String, PatchPositions> get(int projectId, String sha) {
+        Path file = file(projectId, sha);
+        if (file == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Map<String, PatchPositions> result = read(input);
+            CacheFiles.touch(file);
+            hits.incrementAndGet();
+            return result;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignore unreadable cache entry {}: {}", file, e.toString());
+            CacheFiles.deleteQuietly(file);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(int projectId, String sha, Map<String, PatchPositions> positionsByPath) {
+        Path file = file(projectId, sha);
+        if (file == null) {
+            return;
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                write(output, positionsByPath);
+            }
+            CacheFiles.move(temp, file);
+            temp = null;
+            CacheFiles.evict(directory, EXTENSION, maxSizeBytes);
+        } catch (IOException e) {
+            logger.debug("Unable to write cache entry {}: {}", file, e.toString());
+        } finally {
+            if (temp != null) {
+                CacheFiles.deleteQuietly(temp);
+            }
+        }
+    }
+
+    int hits() {
+        return hits.get();
+    }
+
+    int misses() {
+        return misses.get();
+    }
+
+    @CheckForNull
+    private Path file(int projectId, String sha) {
+        if (!SHA_PATTERN.matcher(sha).matches()) {
+            return null;
+        }
+        return directory.resolve(projectId + "-" + sha + EXTENSION);
+    }
+
+    private static Map<String, PatchPositions> read(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unknown format");
+        }
+        int files = input.readInt();
+        Map<String, PatchPositions> result = new HashMap<>(files * 2);
+        for (int f = 0; f < files; f++) {
+            String path = input.readUTF();
+            String oldPath = input.readUTF();
+            int size = input.readInt();
+            PatchPositions positions = new PatchPositions(size);
+            positions.setOldPath(oldPath.isEmpty() ? null : oldPath);
+            int[] lines = new int[size];
+            int line = 0;
+            for (int i = 0; i < size; i++) {
+                line += zigzagDecode(readVarint(input));
+                lines[i] = line;
+            }
+            for (int i = 0; i < size; i++) {
+                positions.add(lines[i], input.readLong());
+            }
+            result.put(path, positions);
+        }
+        return result;
+    }
+
+    private static void write(DataOutputStream output, Map<String, PatchPositions> positionsByPath)
+            throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(positionsByPath.size());
+        for (Map.Entry<String, PatchPositions> entry : positionsByPath.entrySet()) {
+            PatchPositions positions = entry.getValue();
+            output.writeUTF(entry.getKey());
+            output.writeUTF(positions.oldPath() != null ? positions.oldPath() : "");
+            output.writeInt(positions.size());
+            int previous = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                writeVarint(output, zigzagEncode(positions.line(i) - previous));
+                previous = positions.line(i);
+            }
+            for (int i = 0; i < positions.size(); i++) {
+                output.writeLong(positions.hash(i));
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream output, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            output.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.writeByte(remaining);
+    }
+
+    private static int readVarint(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint");
+    }
+
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
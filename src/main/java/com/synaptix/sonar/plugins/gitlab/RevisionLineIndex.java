@@ -0,0 +1,205 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Inverted index of added lines: file path -> line number -> revisions that added this line.
+ * <p>
+ * Revisions must be added in priority order, lookup will return the first one that matches line content.
+ * <p>
+ * Paths and revisions are stored once in symbol tables, the lines of a path are parallel primitive arrays of line
+ * numbers, {@link ContentHash content hashes} and revision ids, sorted by line on first lookup. The index is filled
+ * by a single thread, then may be read concurrently.
+ */
+class RevisionLineIndex {
+
+    private final Map<String, Integer> revisionIds = new HashMap<>();
+
+    private final List<String> revisions = new ArrayList<>();
+
+    private final Map<String, PathLines> linesByPath = new HashMap<>();
+
+    void add(String revision, String path, PatchPositions positions) {
+        int revisionId = revisionId(revision);
+        PathLines pathLines = pathLines(path);
+        for (int i = 0; i < positions.size(); i++) {
+            pathLines.add(positions.line(i), positions.hash(i), revisionId);
+        }
+    }
+
+    void add(String revision, String path, int lineNumber, long contentHash) {
+        pathLines(path).add(lineNumber, contentHash, revisionId(revision));
+    }
+
+    boolean hasPath(String path) {
+        return linesByPath.containsKey(path);
+    }
+
+    Set<String> paths() {
+        return Collections.unmodifiableSet(linesByPath.keySet());
+    }
+
+    /**
+     * @param content current content of the line, {@code null} never matches.
+     */
+    Optional<String> getRevision(String path, int lineNumber, @Nullable String content) {
+        PathLines pathLines = linesByPath.get(path);
+        if (pathLines == null || content == null) {
+            return Optional.empty();
+        }
+        int revisionId = pathLines.find(lineNumber, ContentHash.of(content));
+        return revisionId < 0 ? Optional.empty() : Optional.of(revisions.get(revisionId));
+    }
+
+    /**
+     * @return number of distinct lines, all paths included.
+     */
+    int size() {
+        return linesByPath.values().stream().mapToInt(PathLines::distinctLines).sum();
+    }
+
+    private int revisionId(String revision) {
+        return revisionIds.computeIfAbsent(revision, r -> {
+            revisions.add(r);
+            return revisions.size() - 1;
+        });
+    }
+
+    private PathLines pathLines(String path) {
+        return linesByPath.computeIfAbsent(path, k -> new PathLines());
+    }
+
+    private static class PathLines {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private int[] lines = new int[INITIAL_CAPACITY];
+
+        private long[] hashes = new long[INITIAL_CAPACITY];
+
+        private int[] revisionIds = new int[INITIAL_CAPACITY];
+
+        private int size;
+
+        private int distinctLines;
+
+        private volatile boolean sorted = true;
+
+        private void add(int line, long hash, int revisionId) {
+            if (size == lines.length) {
+                int capacity = lines.length * 2;
+                lines = Arrays.copyOf(lines, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                revisionIds = Arrays.copyOf(revisionIds, capacity);
+            }
+            lines[size] = line;
+            hashes[size] = hash;
+            revisionIds[size] = revisionId;
+            size++;
+            sorted = false;
+        }
+
+        /**
+         * @return id of the first revision, in priority order, that added this line with this content, -1 if none.
+         */
+        private int find(int line, long hash) {
+            ensureSorted();
+            int index = firstIndexOf(line);
+            for (; index < size && lines[index] == line; index++) {
+                if (hashes[index] == hash) {
+                    return revisionIds[index];
+                }
+            }
+            return -1;
+        }
+
+        private int distinctLines() {
+            ensureSorted();
+            return distinctLines;
+        }
+
+        /**
+         * @return index of the first entry of this line, or of the first greater one.
+         */
+        private int firstIndexOf(int line) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (lines[middle] < line) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private void ensureSorted() {
+            if (!sorted) {
+                sort();
+            }
+        }
+
+        /**
+         * Sort entries by line then revision id, i.e. by priority as revisions are added in priority order, and trim
+         * arrays to their size.
+         */
+        private synchronized void sort() {
+            if (sorted) {
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> lines[a] != lines[b] ? Integer.compare(lines[a], lines[b])
+                    : Integer.compare(revisionIds[a], revisionIds[b]));
+            int[] sortedLines = new int[size];
+            long[] sortedHashes = new long[size];
+            int[] sortedRevisionIds = new int[size];
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                sortedLines[i] = lines[order[i]];
+                sortedHashes[i] = hashes[order[i]];
+                sortedRevisionIds[i] = revisionIds[order[i]];
+                if (i == 0 || sortedLines[i] != sortedLines[i - 1]) {
+                    distinct++;
+                }
+            }
+            lines = sortedLines;
+            hashes = sortedHashes;
+            revisionIds = sortedRevisionIds;
+            distinctLines = distinct;
+            sorted = true;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket shared by all GitLab API calls of an analysis, with an adaptive rate: halved each time GitLab
+ * answers that requests are throttled, then increased back step by step on successful calls, and capped so that
+ * the requests GitLab announces as remaining last until its quota is restored.
+ * <p>
+ * A rate of 0 disables throttling, but permits are still held back while GitLab asks to wait, see {@link #pause}.
+ */
+class TokenBucket {
+
+    private static final int RECOVERY_STEPS = 20;
+
+    private final double maxRate;
+
+    private final double minRate;
+
+    private final LongSupplier nanoClock;
+
+    private double rate;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    /**
+     * {@link #nanoClock} time before which no permit is given.
+     */
+    private long pausedUntil;
+
+    /**
+     * @param permitsPerSecond maximum rate, also the burst size.
+     */
+    TokenBucket(double permitsPerSecond, LongSupplier nanoClock) {
+        this.maxRate = permitsPerSecond;
+        this.minRate = Math.min(1, permitsPerSecond);
+        this.nanoClock = nanoClock;
+        this.rate = permitsPerSecond;
+        this.tokens = permitsPerSecond;
+        this.lastRefill = nanoClock.getAsLong();
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * Wait for a permit.
+     *
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    void acquire() throws InterruptedIOException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for GitLab API rate limit");
+            }
+        }
+    }
+
+    /**
+     * Take a permit, possibly in advance.
+     *
+     * @return nanoseconds to wait before using the permit.
+     */
+    synchronized long reserve() {
+        long paused = Math.max(0, pausedUntil - nanoClock.getAsLong());
+        if (maxRate <= 0) {
+            return paused;
+        }
+        refill();
+        tokens -= 1;
+        return Math.max(paused, tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * GitLab asked to wait before sending any request, with {@code Retry-After} or an exhausted quota.
+     */
+    synchronized void pause(long nanos) {
+        long until = nanoClock.getAsLong() + nanos;
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+
+    /**
+     * GitLab announced the requests it still accepts until its quota is restored.
+     */
+    synchronized void limit(long remaining, long resetNanos) {
+        if (remaining <= 0) {
+            pause(resetNanos);
+        } else if (maxRate > 0 && resetNanos > 0) {
+            refill();
+            rate = Math.max(minRate, Math.min(rate, remaining * (double) TimeUnit.SECONDS.toNanos(1) / resetNanos));
+            tokens = Math.min(tokens, remaining);
+        }
+    }
+
+    /**
+     * GitLab rejected a request because of its rate limit.
+     */
+    synchronized void throttle() {
+        if (maxRate <= 0) {
+            return;
+        }
+        refill();
+        rate = Math.max(minRate, rate / 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * GitLab accepted a request.
+     */
+    synchronized void recover() {
+        if (rate < maxRate) {
+            refill();
+            rate = Math.min(maxRate, rate + maxRate / RECOVERY_STEPS);
+        }
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(maxRate, tokens + rate * (now - lastRefill) / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * HTTP/1.1 transport over {@link HttpURLConnection}.
+ * <p>
+ * Connections are never disconnected on success: bodies are read until their end and closed, so that the JDK keeps
+ * the connection, and its TLS session, alive for the next request to the same host. At most
+ * {@code http.maxConnections} (default 5) idle connections are kept per host. A single socket factory is used when
+ * certificate checks are disabled, as connections are only reused for the same factory.
+ */
+class UrlConnectionTransport implements GitLabTransport {
+
+    private final SSLSocketFactory sslSocketFactory;
+
+    private final int connectTimeoutMillis;
+
+    private final int readTimeoutMillis;
+
+    UrlConnectionTransport(boolean ignoreSSL, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.sslSocketFactory = ignoreSSL ? trustAllSocketFactory() : null;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response send(String method, String url, Map<String, String> headers, @Nullable byte[] body)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+                ((HttpsURLConnection) connection).setHostnameVerifier((hostname, session) -> true);
+            }
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            headers.forEach(connection::setRequestProperty);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+
+            int code = connection.getResponseCode();
+            InputStream input = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            byte[] content = GitLabTransports.readBody(input, connection.getContentEncoding());
+            Map<String, String> responseHeaders = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    responseHeaders.put(header.getKey(), header.getValue().get(0));
+                }
+            }
+            return new Response(code, responseHeaders, content);
+        } catch (IOException e) {
+            // Do not give a connection in an unknown state back to the keep-alive cache
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public String protocol() {
+        return "HTTP/1.1";
+    }
+
+    private static SSLSocketFactory trustAllSocketFactory() {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // trust every certificate, see sonar.gitlab.ignore_ssl
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // trust every certificate, see sonar.gitlab.ignore_ssl
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] {trustAll}, null);
+            return context.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to disable SSL certificate checks", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * HTTP/2 transport over {@code java.net.http}, created by {@link GitLabTransports} when the runtime provides it.
+ * <p>
+ * Concurrent requests are multiplexed on a single connection when GitLab negotiates HTTP/2, and fall back to a pool
+ * of keep-alive HTTP/1.1 connections otherwise.
+ */
+class HttpClientTransport implements GitLabTransport {
+
+    private final HttpClient client;
+
+    private final Duration readTimeout;
+
+    HttpClientTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                                               .version(HttpClient.Version.HTTP_2)
+                                               .followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeoutMillis > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        }
+        this.client = builder.build();
+        this.readTimeout = readTimeoutMillis > 0 ? Duration.ofMillis(readTimeoutMillis) : null;
+    }
+
+    @Override
+    public Response send(String method, String url, Map<String, String> headers, @Nullable byte[] body)
+            throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                                                 .method(method, body == null
+                                                         ? HttpRequest.BodyPublishers.noBody()
+                                                         : HttpRequest.BodyPublishers.ofByteArray(body))
+                                                 .header("Accept-Encoding", "gzip");
+        if (readTimeout != null) {
+            request.timeout(readTimeout);
+        }
+        headers.forEach(request::header);
+        try {
+            HttpResponse<InputStream> response = client.send(request.build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            Map<String, String> responseHeaders = new HashMap<>();
+            response.headers().map().forEach((name, values) -> {
+                if (!values.isEmpty()) {
+                    responseHeaders.put(name, values.get(0));
+                }
+            });
+            return new Response(response.statusCode(), responseHeaders, GitLabTransports.readBody(response.body(),
+                    response.headers().firstValue("Content-Encoding").orElse(null)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling " + method + " " + url);
+        }
+    }
+
+    @Override
+    public String protocol() {
+        return "HTTP/2";
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ETagCacheTest {
+
+    private static final String URL = "https://gitlab.example.com/api/v3/projects/42/repository/commits/abc/diff";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temp.newFolder().toPath().resolve("cache");
+    }
+
+    @Test
+    public void roundTrip() {
+        ETagCache cache = new ETagCache(directory, 1024 * 1024);
+        byte[] body = "[{\"diff\":\"@@ -0,0 +1 @@\\n+foo\\n\"}]".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(cache.get(URL, "token")).isNull();
+        cache.put(URL, "token", "W/\"1234\"", body);
+        ETagCache.Entry entry = cache.get(URL, "token");
+
+        assertThat(entry.etag()).isEqualTo("W/\"1234\"");
+        assertThat(entry.body()).isEqualTo(body);
+        assertThat(cache.get(URL, "other token")).isNull();
+        assertThat(cache.get(URL + "?page=2", "token")).isNull();
+    }
+
+    @Test
+    public void ignoreCorruptedEntry() throws IOException {
+        ETagCache cache = new ETagCache(directory, 1024 * 1024);
+        cache.put(URL, "token", "W/\"1234\"", new byte[] {1, 2, 3});
+        Path file = directory.toFile().listFiles()[0].toPath();
+        Files.write(file, new byte[] {1, 2, 3});
+
+        assertThat(cache.get(URL, "token")).isNull();
+        assertThat(Files.exists(file)).isFalse();
+    }
+}
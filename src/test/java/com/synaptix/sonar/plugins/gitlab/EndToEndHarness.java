@@ -0,0 +1,241 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.sonar.api.batch.AnalysisMode;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.postjob.PostJobContext;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.MapSettings;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Run a whole analysis, {@link CommitProjectBuilder} then {@link CommitIssuePostJob}, against a
+ * {@link GitLabApiStub} and record its wall-clock time and the requests it made.
+ */
+class EndToEndHarness {
+
+    private static final Logger logger = Loggers.get(EndToEndHarness.class);
+
+    static final int PROJECT_ID = 42;
+
+    static final String PROJECT_PATH = "group/project";
+
+    private final GitLabApiStub stub;
+
+    private final Path baseDir;
+
+    private final Settings settings = new MapSettings();
+
+    private final List<PostJobIssue> issues = new ArrayList<>();
+
+    /**
+     * @param baseDir empty directory, becomes the root of a Git repository.
+     */
+    EndToEndHarness(GitLabApiStub stub, Path baseDir) throws IOException {
+        this.stub = stub;
+        this.baseDir = baseDir;
+        Files.createDirectories(baseDir.resolve(".git"));
+        stub.addProject(PROJECT_ID, PROJECT_PATH);
+
+        settings.setProperty("sonar.host.url", "https://sonarqube.example.com");
+        settings.setProperty(GitLabPlugin.GITLAB_URL, stub.url());
+        settings.setProperty(GitLabPlugin.GITLAB_USER_TOKEN, "token");
+        settings.setProperty(GitLabPlugin.GITLAB_PROJECT_ID, String.valueOf(PROJECT_ID));
+        settings.setProperty(GitLabPlugin.GITLAB_REF_NAME, "master");
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 10);
+        settings.setProperty(GitLabPlugin.GITLAB_BUILD_INIT_STATE, "running");
+        settings.setProperty(GitLabPlugin.GITLAB_STATUS_NOTIFICATION_MODE, "commit-status");
+        settings.setProperty(GitLabPlugin.GITLAB_API_CONCURRENCY, 4);
+        settings.setProperty(GitLabPlugin.GITLAB_API_TIMEOUT, 60);
+        settings.setProperty(GitLabPlugin.GITLAB_API_MAX_RETRIES, 3);
+        settings.setProperty(GitLabPlugin.GITLAB_API_RATE_LIMIT, 0);
+    }
+
+    Settings settings() {
+        return settings;
+    }
+
+    /**
+     * Write a source file and register a commit that added all of its lines.
+     */
+    InputFile addFile(String revision, String relativePath, List<String> lines) throws IOException {
+        Path file = baseDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, lines, StandardCharsets.UTF_8);
+
+        StringBuilder diff = new StringBuilder("@@ -0,0 +1,").append(lines.size()).append(" @@\n");
+        lines.forEach(line -> diff.append('+').append(line).append('\n'));
+        stub.addDiff(revision, relativePath, diff.toString());
+
+        return new DefaultInputFile("module", relativePath)
+                .setModuleBaseDir(baseDir)
+                .setCharset(StandardCharsets.UTF_8)
+                .setLines(lines.size());
+    }
+
+    void addIssue(InputFile inputFile, int line, Severity severity, String message) {
+        addIssue(inputFile, line, severity, message, RuleKey.of("squid", "S" + (issues.size() % 7)));
+    }
+
+    void addIssue(InputFile inputFile, int line, Severity severity, String message, RuleKey ruleKey) {
+        issues.add(new TestIssue(ruleKey, inputFile, line, severity, message));
+    }
+
+    Result run() {
+        return run(GitLabApiFacade::new);
+    }
+
+    /**
+     * @param facadeFactory creates the facade shared by project builder and post job, e.g. to observe its calls.
+     */
+    Result run(Function<GitLabPluginConfiguration, GitLabApiFacade> facadeFactory) {
+        stub.resetCounts();
+        GitLabPluginConfiguration configuration = new GitLabPluginConfiguration(settings);
+        GitLabApiFacade facade = facadeFactory.apply(configuration);
+        MarkDownUtils markDownUtils = new MarkDownUtils(settings);
+        ProjectReactor reactor = new ProjectReactor(ProjectDefinition.create()
+                                                                     .setKey("project")
+                                                                     .setBaseDir(baseDir.toFile())
+                                                                     .setWorkDir(baseDir.resolve(".sonar").toFile()));
+
+        long start = System.nanoTime();
+        new CommitProjectBuilder(configuration, facade, new IssuesMode()).build(() -> reactor);
+        long init = System.nanoTime();
+        new CommitIssuePostJob(configuration, facade, markDownUtils).execute(new Context(settings, issues));
+        long end = System.nanoTime();
+
+        Result result = new Result(TimeUnit.NANOSECONDS.toMillis(init - start),
+                TimeUnit.NANOSECONDS.toMillis(end - init), stub.requestCounts(), stub.totalRequests());
+        logger.info("{}", result);
+        return result;
+    }
+
+    static class Result {
+
+        private final long initMillis;
+
+        private final long postJobMillis;
+
+        private final Map<String, Integer> requestCounts;
+
+        private final int totalRequests;
+
+        private Result(long initMillis, long postJobMillis, Map<String, Integer> requestCounts, int totalRequests) {
+            this.initMillis = initMillis;
+            this.postJobMillis = postJobMillis;
+            this.requestCounts = requestCounts;
+            this.totalRequests = totalRequests;
+        }
+
+        long initMillis() {
+            return initMillis;
+        }
+
+        long postJobMillis() {
+            return postJobMillis;
+        }
+
+        long wallClockMillis() {
+            return initMillis + postJobMillis;
+        }
+
+        int requestCount(String route) {
+            return requestCounts.getOrDefault(route, 0);
+        }
+
+        int totalRequests() {
+            return totalRequests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("wall-clock %d ms (init %d ms, post job %d ms), %d requests %s", wallClockMillis(),
+                    initMillis, postJobMillis, totalRequests, requestCounts);
+        }
+    }
+
+    private static class IssuesMode implements AnalysisMode {
+
+        @Override
+        public boolean isPreview() {
+            return false;
+        }
+
+        @Override
+        public boolean isIssues() {
+            return true;
+        }
+
+        @Override
+        public boolean isPublish() {
+            return false;
+        }
+    }
+
+    private static class Context implements PostJobContext {
+
+        private final Settings settings;
+
+        private final List<PostJobIssue> issues;
+
+        private Context(Settings settings, List<PostJobIssue> issues) {
+            this.settings = settings;
+            this.issues = issues;
+        }
+
+        @Override
+        public Settings settings() {
+            return settings;
+        }
+
+        @Override
+        public AnalysisMode analysisMode() {
+            return new IssuesMode();
+        }
+
+        @Override
+        public Iterable<PostJobIssue> issues() {
+            return issues;
+        }
+
+        @Override
+        public Iterable<PostJobIssue> resolvedIssues() {
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+public class EndToEndTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private GitLabApiStub stub;
+
+    private Path baseDir;
+
+    private EndToEndHarness harness;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new GitLabApiStub();
+        baseDir = temp.newFolder().toPath();
+        harness = new EndToEndHarness(stub, baseDir);
+        stub.addCommit("head", "dev@example.com").addCommit("parent", "dev@example.com");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,parent");
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void publishCommentsAndStatus() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        InputFile bar = harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(bar, 5, Severity.CRITICAL, "Bar issue");
+        stub.addComment("parent", "src/Bar.java", 5, ":no_entry_sign: Bar issue [:blue_book:]("
+                + "https://sonarqube.example.com/coding_rules#rule_key=squid%3AS1)");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).containsExactly("src/Foo.java", null);
+        assertThat(stub.comments("parent")).hasSize(1);
+        assertThat(stub.statuses("head")).extracting(s -> s.get("status")).containsExactly("failed");
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.CREATE_COMMENT_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.CREATE_STATUS_ROUTE)).isEqualTo(1);
+    }
+
+    @Test
+    public void fetchEveryAuthorAndUserOnceWhenPingingUsers() throws IOException {
+        stub.addCommit("other", "unknown@example.com").addUser("dev", "dev@example.com");
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        InputFile bar = harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        InputFile baz = harness.addFile("other", "src/Baz.java", lines("baz", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(foo, 7, Severity.MAJOR, "Other foo issue");
+        harness.addIssue(bar, 5, Severity.CRITICAL, "Bar issue");
+        harness.addIssue(baz, 2, Severity.MINOR, "Baz issue");
+        harness.addIssue(baz, 4, Severity.MINOR, "Other baz issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,parent,other");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_PING_USER, true);
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.COMMIT_ROUTE)).isEqualTo(3);
+        // Once for dev, once for the unknown author without a GitLab user
+        assertThat(result.requestCount(GitLabApiStub.USERS_ROUTE)).isEqualTo(2);
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).contains("src/Foo.java");
+        stub.comments("head").stream().filter(c -> c.get("path") != null)
+            .forEach(c -> assertThat((String) c.get("note")).contains("@dev"));
+        assertThat(stub.comments("other")).extracting(c -> c.get("path")).contains("src/Baz.java");
+        stub.comments("other").forEach(c -> assertThat((String) c.get("note")).doesNotContain("@"));
+    }
+
+    @Test
+    public void postSameInlineCommentOnce() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue", RuleKey.of("squid", "S1"));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue", RuleKey.of("squid", "S1"));
+        stub.latency(50, TimeUnit.MILLISECONDS);
+
+        harness.run();
+
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).containsExactly("src/Foo.java", null);
+    }
+
+    @Test
+    public void failOnFirstFailedRevisionWithoutWaitingForSlowerOnes() throws IOException {
+        harness.addFile("head", "src/Foo.java", lines("foo", 5));
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,unknown");
+        stub.delay("head", 30, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        try {
+            harness.run();
+            fail("Unknown revision should fail the analysis");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause().getMessage()).isEqualTo("Unable to fetch 1 of 2 revisions");
+            assertThat(e.getCause().getCause().getMessage()).isEqualTo("Unable to fetch revision unknown");
+        }
+        // Far below the delay of head
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(15));
+    }
+
+    @Test
+    public void applyTimeoutToAllRevisionsAtOnce() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            stub.addCommit("revision-" + i, "dev@example.com").delay("revision-" + i, 700, TimeUnit.MILLISECONDS);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "revision-0,revision-1,revision-2");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_CONCURRENCY, 1);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_INIT_TIMEOUT, 1);
+
+        // Every call is shorter than the timeout, all of them are not
+        try {
+            harness.run();
+            fail("Revisions fetched after the timeout should fail the analysis");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause().getCause()).isInstanceOf(TimeoutException.class);
+        }
+    }
+
+    @Test
+    public void publishMergeRequestReview() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        InputFile bar = harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(foo, 4, Severity.MINOR, "Other foo issue");
+        harness.addIssue(bar, 5, Severity.CRITICAL, "Bar issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMENT_MODE, GitLabPlugin.MERGE_REQUEST_REVIEW_MODE);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_MERGE_REQUEST_IID, "7");
+        stub.addMergeRequest("7", "base", "head")
+            .addMergeRequestNote("7", "src/Bar.java", 5, ":no_entry_sign: Bar issue [:blue_book:]("
+                    + "https://sonarqube.example.com/coding_rules#rule_key=squid%3AS2)");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(stub.draftNotes("7")).isEmpty();
+        assertThat(stub.discussions("7")).hasSize(4);
+        assertThat(stub.comments("head")).isEmpty();
+        assertThat(stub.statuses("head")).extracting(s -> s.get("status")).containsExactly("failed");
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(0);
+        assertThat(result.requestCount(GitLabApiStub.DISCUSSIONS_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.DRAFT_NOTES_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.CREATE_DRAFT_NOTE_ROUTE)).isEqualTo(3);
+        assertThat(result.requestCount(GitLabApiStub.BULK_PUBLISH_ROUTE)).isEqualTo(1);
+        assertThat(stub.apiVersions()).containsOnly("/api/v4");
+    }
+
+    @Test
+    public void publishPendingDraftsOfMergeRequestReviewWithoutDraftingThemAgain() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(foo, 4, Severity.MINOR, "Other foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMENT_MODE, GitLabPlugin.MERGE_REQUEST_REVIEW_MODE);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_MERGE_REQUEST_IID, "7");
+        stub.addMergeRequest("7", "base", "head")
+            .addDraftNote("7", "src/Foo.java", 3, ":warning: Foo issue [:blue_book:]("
+                    + "https://sonarqube.example.com/coding_rules#rule_key=squid%3AS0)");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.CREATE_DRAFT_NOTE_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.BULK_PUBLISH_ROUTE)).isEqualTo(1);
+        assertThat(stub.draftNotes("7")).isEmpty();
+        assertThat(stub.discussions("7")).hasSize(3);
+    }
+
+    @Test
+    public void positionDraftNotesOfRenamedFileWithItsOldPath() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        stub.renameFile("head", "src/OldFoo.java", "src/Foo.java");
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMENT_MODE, GitLabPlugin.MERGE_REQUEST_REVIEW_MODE);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_MERGE_REQUEST_IID, "7");
+        stub.addMergeRequest("7", "base", "head");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.CREATE_DRAFT_NOTE_ROUTE)).isEqualTo(2);
+        assertThat(stub.discussions("7")).hasSize(2);
+    }
+
+    @Test
+    public void aggregateIssuesOfALine() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addIssue(foo, 3, Severity.MINOR, "Magic number");
+        harness.addIssue(foo, 3, Severity.MAJOR, "Line too long");
+        harness.addIssue(foo, 8, Severity.MINOR, "Magic number");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMENT_AGGREGATION, InlineCommentAggregator.LINE_MODE);
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.CREATE_COMMENT_ROUTE)).isEqualTo(3);
+        assertThat(stub.comments("head")).hasSize(3).extracting(c -> c.get("line")).containsOnly("3", "8", null);
+        assertThat(stub.comments("head").stream().filter(c -> "3".equals(c.get("line"))).map(c -> c.get("note"))
+                                     .collect(Collectors.toList())).containsOnly(":warning: 2 issues:\n"
+                        + "* :arrow_down_small: Magic number [:blue_book:](https://sonarqube.example.com/coding_rules"
+                        + "#rule_key=squid%3AS0)\n"
+                        + "* :warning: Line too long [:blue_book:](https://sonarqube.example.com/coding_rules"
+                        + "#rule_key=squid%3AS1)");
+
+        harness.run();
+
+        assertThat(stub.comments("head")).hasSize(4).extracting(c -> c.get("line")).containsOnly("3", "8", null);
+    }
+
+    @Test
+    public void fetchOnlyNewDiffsWithDiffCache() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_CACHE, true);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_CACHE_SIZE, 1);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "parent");
+
+        assertThat(harness.run().requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(1);
+
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,parent");
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(1);
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).contains("src/Foo.java");
+    }
+
+    @Test
+    public void incrementalRunOnlyCommentsNewRevisions() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        InputFile bar = harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(bar, 5, Severity.CRITICAL, "Bar issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_INCREMENTAL, true);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "parent");
+
+        harness.run();
+
+        assertThat(stub.comments("parent")).hasSize(2);
+        assertThat(stub.statuses("parent")).extracting(s -> s.get("status")).containsExactly("failed");
+
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,parent");
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(1);
+        assertThat(stub.comments("parent")).hasSize(2);
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).containsOnly("src/Foo.java", null);
+        assertThat(stub.statuses("head")).extracting(s -> s.get("description"))
+                                         .containsExactly("SonarQube reported: 2 issues, with 1 CRITICAL");
+    }
+
+    @Test
+    public void findPublishedRevisionByParallelBatchesNewestFirst() throws IOException {
+        String[] revisions = {"revision-0", "revision-1", "revision-2", "revision-3", "revision-4", "revision-5"};
+        for (String revision : revisions) {
+            stub.addCommit(revision, "dev@example.com");
+            harness.addFile(revision, "src/" + revision + ".java", lines(revision, 10));
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_INCREMENTAL, true);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_CONCURRENCY, 2);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "revision-3,revision-4,revision-5");
+        harness.run();
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, String.join(",", revisions));
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.STATUSES_ROUTE)).isEqualTo(4);
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(3);
+        assertThat(stub.statuses("revision-3")).hasSize(1);
+    }
+
+    @Test
+    public void compareDiffOnlyFetchesCommitDiffsToAttributeIssues() throws IOException {
+        stub.addCommit("parent", "dev@example.com", "base")
+            .addCommit("middle", "dev@example.com", "parent")
+            .addCommit("head", "dev@example.com", "middle");
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addFile("middle", "src/Baz.java", lines("baz", 20));
+        InputFile bar = harness.addFile("parent", "src/Bar.java", lines("bar", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.addIssue(bar, 30, Severity.MINOR, "Unreachable bar issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_MODE, GitLabPlugin.COMPARE_DIFF_MODE);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head,middle,parent");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.COMMIT_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.COMPARE_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(1);
+        assertThat(stub.comments("head")).extracting(c -> c.get("path")).containsOnly("src/Foo.java", null);
+        assertThat(stub.comments("head").stream().filter(c -> c.get("path") == null).map(c -> (String) c.get("note"))
+                       .collect(Collectors.toList()).get(0)).contains("Unreachable bar issue");
+    }
+
+    @Test
+    public void foldEveryPageOfCommentsAndDiffs() throws IOException {
+        List<InputFile> files = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            files.add(harness.addFile("head", "src/File" + i + ".java", lines("file" + i, 3)));
+            stub.addComment("head", "src/File" + i + ".java", 1, "Another review comment");
+        }
+        harness.addIssue(files.get(149), 2, Severity.MAJOR, "Issue on the last file");
+        stub.addComment("head", "src/File149.java", 2, ":warning: Issue on the last file [:blue_book:]("
+                + "https://sonarqube.example.com/coding_rules#rule_key=squid%3AS0)");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.CREATE_COMMENT_ROUTE)).isEqualTo(1);
+        assertThat(stub.comments("head")).hasSize(152);
+    }
+
+    @Test
+    public void stopAtRepeatedPageWithoutPaginationHeaders() throws IOException {
+        for (int i = 0; i < 150; i++) {
+            stub.addComment("head", "src/Foo.java", 1, "Review comment " + i);
+        }
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 3));
+        harness.addIssue(foo, 2, Severity.MAJOR, "Foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head");
+        stub.perPage(100).ignorePages();
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(2);
+        assertThat(stub.statuses("head")).extracting(s -> s.get("status")).containsExactly("success");
+    }
+
+    @Test
+    public void doNotCacheDiffEndedAtRepeatedPage() throws IOException {
+        for (int i = 0; i < 150; i++) {
+            harness.addFile("head", "src/File" + i + ".java", lines("file" + i, 3));
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_CACHE, true);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_CACHE_SIZE, 1);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "head");
+        stub.perPage(100).ignorePages();
+
+        assertThat(harness.run().requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(2);
+        assertThat(harness.run().requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(2);
+    }
+
+    @Test
+    public void locateProjectWithoutListingAllProjects() throws IOException {
+        for (int i = 1; i <= 150; i++) {
+            stub.addProject(1000 + i, "other/project-" + i);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_PROJECT_ID, "git@127.0.0.1:group/project.git");
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.PROJECT_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.PROJECTS_ROUTE)).isEqualTo(0);
+
+        harness.settings().setProperty(GitLabPlugin.GITLAB_PROJECT_ID, "group / project");
+        result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.PROJECTS_ROUTE)).isEqualTo(1);
+
+        result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.PROJECT_ROUTE)).isEqualTo(1);
+        assertThat(result.requestCount(GitLabApiStub.PROJECTS_ROUTE)).isEqualTo(0);
+    }
+
+    @Test
+    public void parallelIssueProcessingPublishesLikeSequentialProcessing() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 100));
+        Severity[] severities = Severity.values();
+        for (int i = 1; i <= 200; i++) {
+            harness.addIssue(foo, i, severities[i % severities.length], "Issue " + i);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMENT_AGGREGATION, InlineCommentAggregator.LINE_MODE);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_ISSUE_PARALLELISM, 4);
+
+        harness.run();
+
+        List<Object> parallel = stub.comments("head").stream().map(c -> c.get("note")).collect(Collectors.toList());
+        stub.addCommit("head", "dev@example.com");
+        harness.addFile("head", "src/Foo.java", lines("foo", 100));
+        harness.settings().setProperty(GitLabPlugin.GITLAB_ISSUE_PARALLELISM, 1);
+
+        harness.run();
+
+        List<Object> sequential = stub.comments("head").stream().map(c -> c.get("note"))
+                                      .collect(Collectors.toList());
+        assertThat(parallel).hasSize(101).containsOnly(sequential.toArray());
+        assertThat(parallel.get(100)).isEqualTo(sequential.get(100));
+    }
+
+    @Test
+    public void writeMetricsReport() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_METRICS_REPORT, true);
+
+        harness.run();
+
+        String metrics = new String(Files.readAllBytes(baseDir.resolve(".sonar/gitlab-metrics.json")),
+                StandardCharsets.UTF_8);
+        assertThat(metrics).contains("\"api commit diffs\" : {\n      \"count\" : 2,")
+                           .contains("\"line resolution\" : {\n      \"count\" : 1,")
+                           .contains("\"diff parsing\"")
+                           .contains("\"post job commit status\"");
+    }
+
+    @Test
+    public void keepConnectionsAliveOverHttp1() throws IOException {
+        assertConnectionsAreReused(GitLabPlugin.HTTP1_TRANSPORT);
+    }
+
+    @Test
+    public void keepConnectionsAliveWithAutoTransport() throws IOException {
+        assertConnectionsAreReused(GitLabPlugin.AUTO_TRANSPORT);
+    }
+
+    private void assertConnectionsAreReused(String transport) throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 40));
+        for (int line = 1; line <= 40; line++) {
+            harness.addIssue(foo, line, Severity.MINOR, "Issue " + line);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_TRANSPORT, transport);
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(stub.comments("head")).hasSize(41);
+        assertThat(result.totalRequests()).isGreaterThan(40);
+        // At most one connection per concurrent call, plus one the server may have closed
+        assertThat(stub.connectionCount()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    public void reuseUnchangedCommentsAndDiffsWithETagCache() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 20));
+        harness.addIssue(foo, 3, Severity.MAJOR, "Foo issue");
+        harness.settings().setProperty(GitLabPlugin.GITLAB_ETAG_CACHE, true);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_DIFF_CACHE_SIZE, 1);
+
+        harness.run();
+        EndToEndHarness.Result result = harness.run();
+
+        // Diffs did not change, nor did comments of parent: only comments of head, commented by the first run
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(2);
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(2);
+        assertThat(stub.notModifiedCount()).isEqualTo(3);
+        assertThat(stub.comments("head").stream().filter(c -> "src/Foo.java".equals(c.get("path")))
+                       .collect(Collectors.toList())).hasSize(1);
+        assertThat(baseDir.resolve(".sonar/gitlab-etag-cache").toFile().list()).hasSize(4);
+    }
+
+    @Test
+    public void publishCommentsWithVirtualThreads() throws IOException {
+        assumeTrue(Double.parseDouble(System.getProperty("java.specification.version")) >= 21);
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 200));
+        for (int line = 1; line <= 200; line++) {
+            harness.addIssue(foo, line, Severity.MAJOR, "Foo issue " + line);
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_THREADS, GitLabPlugin.VIRTUAL_THREADS);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_CONCURRENCY, 16);
+        harness.settings().setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 0);
+        stub.latency(20, TimeUnit.MILLISECONDS);
+        Set<Thread> postingThreads = ConcurrentHashMap.newKeySet();
+
+        EndToEndHarness.Result result = harness.run(configuration -> new GitLabApiFacade(configuration) {
+            @Override
+            void createInlineComment(String revision, InputFile inputFile, Integer line, String body) {
+                postingThreads.add(Thread.currentThread());
+                super.createInlineComment(revision, inputFile, line, body);
+            }
+        });
+
+        assertThat(result.requestCount(GitLabApiStub.CREATE_COMMENT_ROUTE)).isEqualTo(201);
+        assertThat(stub.comments("head")).hasSize(201);
+        assertThat(stub.statuses("head")).extracting(s -> s.get("status")).containsExactly("success");
+        assertThat(stub.peakConcurrentRequests()).isLessThanOrEqualTo(16);
+        assertThat(postingThreads).hasSize(200);
+        for (Thread thread : postingThreads) {
+            assertThat(isVirtual(thread)).isTrue();
+        }
+    }
+
+    @Test
+    public void revisionsAreFetchedConcurrently() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            String revision = "revision-" + i;
+            stub.addCommit(revision, "dev@example.com");
+            harness.addFile(revision, "src/File" + i + ".java", lines("file" + i, 10));
+        }
+        harness.settings().setProperty(GitLabPlugin.GITLAB_COMMIT_HASHES, "revision-0,revision-1,revision-2,revision-3");
+        stub.latency(100, TimeUnit.MILLISECONDS);
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(result.requestCount(GitLabApiStub.DIFF_ROUTE)).isEqualTo(4);
+        assertThat(result.requestCount(GitLabApiStub.COMMENTS_ROUTE)).isEqualTo(4);
+        assertThat(stub.peakConcurrentRequests()).isGreaterThan(1).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    public void retryRateLimitedRequests() throws IOException {
+        InputFile foo = harness.addFile("head", "src/Foo.java", lines("foo", 5));
+        harness.addIssue(foo, 1, Severity.MAJOR, "Foo issue");
+        stub.rateLimitEvery(3);
+
+        EndToEndHarness.Result result = harness.run();
+
+        assertThat(stub.rateLimitedRequests()).isGreaterThan(0);
+        assertThat(result.totalRequests()).isEqualTo(result.requestCount(GitLabApiStub.PROJECT_ROUTE)
+                + result.requestCount(GitLabApiStub.DIFF_ROUTE) + result.requestCount(GitLabApiStub.COMMENTS_ROUTE)
+                + result.requestCount(GitLabApiStub.CREATE_COMMENT_ROUTE)
+                + result.requestCount(GitLabApiStub.CREATE_STATUS_ROUTE));
+        assertThat(stub.comments("head")).hasSize(2);
+        assertThat(stub.statuses("head")).hasSize(1);
+    }
+
+    @Test
+    public void rateLimitedRequestFailsAnalysisOnceRetriesAreExhausted() throws IOException {
+        harness.addFile("head", "src/Foo.java", lines("foo", 5));
+        harness.settings().setProperty(GitLabPlugin.GITLAB_API_MAX_RETRIES, 1);
+        stub.rateLimitEvery(1);
+
+        try {
+            harness.run();
+            fail("429 responses should fail the analysis");
+        } catch (IllegalStateException e) {
+            assertThat(stub.rateLimitedRequests()).isEqualTo(2);
+        }
+    }
+
+    /**
+     * {@code Thread.isVirtual()}, looked up as tests are built for Java 8.
+     */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> lines(String prefix, int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            lines.add("int " + prefix + i + " = " + i + ";");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+public class FileLineCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void readEachFileOnce() throws IOException {
+        InputFile inputFile = inputFile("Foo.java", "first", "second", "thïrd");
+        FileLineCache cache = new FileLineCache(2);
+
+        assertThat(cache.getLine(inputFile, 1)).isEqualTo("first");
+        assertThat(cache.getLine(inputFile, 3)).isEqualTo("thïrd");
+        assertThat(cache.getLine(inputFile, 4)).isNull();
+        assertThat(cache.misses()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(2);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedFile() throws IOException {
+        InputFile foo = inputFile("Foo.java", "foo");
+        InputFile bar = inputFile("Bar.java", "bar");
+        InputFile baz = inputFile("Baz.java", "baz");
+        FileLineCache cache = new FileLineCache(2);
+
+        cache.getLine(foo, 1);
+        cache.getLine(bar, 1);
+        cache.getLine(foo, 1);
+        cache.getLine(baz, 1);
+        cache.getLine(foo, 1);
+        cache.getLine(bar, 1);
+
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isEqualTo(4);
+    }
+
+    private InputFile inputFile(String name, String... lines) throws IOException {
+        File file = temp.newFile(name);
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.ISO_8859_1);
+        return new DefaultInputFile("module", name)
+                .setModuleBaseDir(temp.getRoot().toPath())
+                .setCharset(StandardCharsets.ISO_8859_1);
+    }
+}
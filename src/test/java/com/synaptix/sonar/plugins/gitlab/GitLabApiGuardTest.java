@@ -0,0 +1,219 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gitlab.api.GitlabAPIException;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+
+public class GitLabApiGuardTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(3, TimeUnit.SECONDS.toNanos(30), clock::get);
+
+    private final GitLabMetrics metrics = new GitLabMetrics();
+
+    private final GitLabApiGuard guard = new GitLabApiGuard(2, 0, new TokenBucket(0, clock::get), circuitBreaker,
+            metrics);
+
+    @Test
+    public void retryIdempotentCallOnGatewayError() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = guard.call("test", true, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw error(502);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(circuitBreaker.consecutiveFailures()).isEqualTo(0);
+        assertThat(metrics.timer("api test").count()).isEqualTo(3);
+        assertThat(metrics.count("api test retries")).isEqualTo(2);
+        assertThat(metrics.count("api test failures")).isEqualTo(0);
+    }
+
+    @Test
+    public void retryOtherCallOnlyWhenRateLimited() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        assertFailure(() -> guard.call("test", false, () -> {
+            calls.incrementAndGet();
+            throw error(502);
+        }), 502);
+        assertThat(calls.get()).isEqualTo(1);
+
+        calls.set(0);
+        assertThat(guard.call("test", false, () -> calls.incrementAndGet() < 2 ? fail429() : "ok")).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void doNotRetryClientError() {
+        AtomicInteger calls = new AtomicInteger();
+        assertFailure(() -> guard.call("test", true, () -> {
+            calls.incrementAndGet();
+            throw error(404);
+        }), 404);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(circuitBreaker.consecutiveFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void retryOnNetworkErrorOnly() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        assertThat(guard.call("test", true, () -> {
+            if (calls.incrementAndGet() < 2) {
+                throw new ConnectException("Connection refused");
+            }
+            return "ok";
+        })).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(2);
+
+        calls.set(0);
+        try {
+            guard.call("test", true, () -> {
+                calls.incrementAndGet();
+                throw new JsonParseException("Unexpected character", JsonLocation.NA);
+            });
+            fail("call should fail");
+        } catch (JsonParseException e) {
+            assertThat(calls.get()).isEqualTo(1);
+        }
+        assertThat(circuitBreaker.consecutiveFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void doNotOpenCircuitWhenRateLimited() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            assertFailure(() -> guard.call("test", true, () -> {
+                calls.incrementAndGet();
+                return fail429();
+            }), 429);
+        }
+        assertThat(calls.get()).isEqualTo(6);
+        assertThat(circuitBreaker.consecutiveFailures()).isEqualTo(0);
+        assertThat(guard.call("test", true, () -> "ok")).isEqualTo("ok");
+    }
+
+    @Test
+    public void openCircuitAfterConsecutiveFailures() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        assertFailure(() -> guard.call("test", true, () -> {
+            calls.incrementAndGet();
+            throw error(503);
+        }), 503);
+        assertThat(calls.get()).isEqualTo(3);
+
+        try {
+            guard.call("test", true, () -> "ok");
+            fail("circuit should be open");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("GitLab API unavailable after 3 consecutive failures");
+        }
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertThat(guard.call("test", true, () -> "ok")).isEqualTo("ok");
+    }
+
+    @Test
+    public void adaptRateToThrottling() {
+        TokenBucket tokenBucket = new TokenBucket(10, clock::get);
+        for (int i = 0; i < 10; i++) {
+            assertThat(tokenBucket.reserve()).isEqualTo(0);
+        }
+        assertThat(tokenBucket.reserve()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+        tokenBucket.throttle();
+        assertThat(tokenBucket.rate()).isEqualTo(5);
+        tokenBucket.throttle();
+        assertThat(tokenBucket.rate()).isEqualTo(2.5);
+        tokenBucket.recover();
+        assertThat(tokenBucket.rate()).isEqualTo(3);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(tokenBucket.reserve()).isEqualTo(0);
+    }
+
+    @Test
+    public void waitRetryAfterOfThrottledResponse() {
+        TokenBucket tokenBucket = new TokenBucket(0, clock::get);
+        GitLabApiGuard noRetryGuard = new GitLabApiGuard(0, 0, tokenBucket, circuitBreaker, metrics);
+
+        assertFailure(() -> noRetryGuard.call("test", true, () -> {
+            throw new GitLabHttpException("HTTP 429", 429, 2000, null);
+        }), 429);
+
+        assertThat(tokenBucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(2));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertThat(tokenBucket.reserve()).isEqualTo(0);
+    }
+
+    @Test
+    public void keepRateWithinAnnouncedQuota() {
+        TokenBucket tokenBucket = new TokenBucket(10, clock::get);
+        GitLabApiGuard quotaGuard = new GitLabApiGuard(0, 0, tokenBucket, circuitBreaker, metrics);
+
+        quotaGuard.onRateLimit(20, TimeUnit.SECONDS.toMillis(10));
+        assertThat(tokenBucket.rate()).isEqualTo(2);
+
+        quotaGuard.onRateLimit(0, TimeUnit.SECONDS.toMillis(5));
+        assertThat(tokenBucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void parseRetryAfter() {
+        assertThat(GitLabRestClient.retryAfterMillis("3")).isEqualTo(3000);
+        assertThat(GitLabRestClient.retryAfterMillis("Thu, 01 Jan 1970 00:00:00 GMT")).isEqualTo(0);
+        assertThat(GitLabRestClient.retryAfterMillis("soon")).isEqualTo(-1);
+        assertThat(GitLabRestClient.retryAfterMillis(null)).isEqualTo(-1);
+    }
+
+    private static String fail429() throws GitlabAPIException {
+        throw error(429);
+    }
+
+    private static GitlabAPIException error(int code) {
+        return new GitlabAPIException("HTTP " + code, code, null);
+    }
+
+    private static void assertFailure(GitLabApiGuard.GitLabCall<?> call, int expectedCode) {
+        try {
+            call.call();
+            fail("call should fail");
+        } catch (IOException e) {
+            assertThat(((GitlabAPIException) e).getResponseCode()).isEqualTo(expectedCode);
+        }
+    }
+}
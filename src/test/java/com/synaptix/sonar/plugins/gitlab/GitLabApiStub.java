@@ -0,0 +1,891 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.gitlab.api.GitlabAPI;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded stand-in of the GitLab API v3 endpoints called through java-gitlab-api: project, commit, diff,
+ * comment, status and user, and of the API v4 merge request endpoints called through {@link GitLabRestClient}.
+ * Responses can be delayed, rate limited (429) and list endpoints are paginated
+ * with {@code page} and {@code per_page} like GitLab does.
+ * <p>
+ * Every request is counted by route, e.g. {@code GET /projects/:id/repository/commits/:sha/diff}.
+ */
+class GitLabApiStub implements AutoCloseable {
+
+    static final String PROJECT_ROUTE = "GET /projects/:id";
+    static final String PROJECTS_ROUTE = "GET /projects";
+    static final String COMMIT_ROUTE = "GET /projects/:id/repository/commits/:sha";
+    static final String DIFF_ROUTE = "GET /projects/:id/repository/commits/:sha/diff";
+    static final String COMMENTS_ROUTE = "GET /projects/:id/repository/commits/:sha/comments";
+    static final String CREATE_COMMENT_ROUTE = "POST /projects/:id/repository/commits/:sha/comments";
+    static final String COMPARE_ROUTE = "GET /projects/:id/repository/compare";
+    static final String STATUSES_ROUTE = "GET /projects/:id/repository/commits/:sha/statuses";
+    static final String CREATE_STATUS_ROUTE = "POST /projects/:id/statuses/:sha";
+    static final String USERS_ROUTE = "GET /users";
+    static final String MERGE_REQUEST_ROUTE = "GET /projects/:id/merge_requests/:iid";
+    static final String DISCUSSIONS_ROUTE = "GET /projects/:id/merge_requests/:iid/discussions";
+    static final String DRAFT_NOTES_ROUTE = "GET /projects/:id/merge_requests/:iid/draft_notes";
+    static final String CREATE_DRAFT_NOTE_ROUTE = "POST /projects/:id/merge_requests/:iid/draft_notes";
+    static final String BULK_PUBLISH_ROUTE = "POST /projects/:id/merge_requests/:iid/draft_notes/bulk_publish";
+
+    private static final Pattern API_PREFIX = Pattern.compile("(/api/v[34])(/.*)");
+
+    private static final int DEFAULT_PER_PAGE = 20;
+
+    private static final int MAX_PER_PAGE = 100;
+
+    /**
+     * Pending connections accepted before refusing new ones, enough for hundreds of concurrent clients.
+     */
+    private static final int BACKLOG = 1024;
+
+    private final List<Route> routes = new ArrayList<>();
+
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger requestSequence = new AtomicInteger();
+
+    private final AtomicInteger rateLimited = new AtomicInteger();
+
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> apiVersions = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private final Map<String, Map<String, Object>> projects = new ConcurrentHashMap<>();
+
+    private final Map<String, Commit> commits = new ConcurrentHashMap<>();
+
+    private final List<Map<String, Object>> users = new CopyOnWriteArrayList<>();
+
+    private final Map<String, MergeRequest> mergeRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Path before the rename by path of renamed files, a draft note must be positioned with both.
+     */
+    private final Map<String, String> renamedPaths = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> commitDelays = new ConcurrentHashMap<>();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private volatile long latencyMillis;
+
+    private volatile int rateLimitEvery;
+
+    private volatile int perPage = DEFAULT_PER_PAGE;
+
+    private volatile boolean ignorePages;
+
+    GitLabApiStub() throws IOException {
+        routes.add(new Route(PROJECTS_ROUTE, "/projects", this::getProjects));
+        routes.add(new Route(PROJECT_ROUTE, "/projects/([^/]+)", this::getProject));
+        routes.add(new Route(DIFF_ROUTE, "/projects/([^/]+)/repository/commits/([^/]+)/diff", this::getDiff));
+        routes.add(new Route(COMMENTS_ROUTE, "/projects/([^/]+)/repository/commits/([^/]+)/comments",
+                this::getComments));
+        routes.add(new Route(CREATE_COMMENT_ROUTE, "/projects/([^/]+)/repository/commits/([^/]+)/comments",
+                this::createComment));
+        routes.add(new Route(STATUSES_ROUTE, "/projects/([^/]+)/repository/commits/([^/]+)/statuses",
+                this::getStatuses));
+        routes.add(new Route(CREATE_STATUS_ROUTE, "/projects/([^/]+)/statuses/([^/]+)", this::createStatus));
+        routes.add(new Route(COMPARE_ROUTE, "/projects/([^/]+)/repository/compare", this::compare));
+        routes.add(new Route(COMMIT_ROUTE, "/projects/([^/]+)/repository/commits/([^/]+)", this::getCommit));
+        routes.add(new Route(USERS_ROUTE, "/users", this::getUsers));
+        routes.add(new Route(MERGE_REQUEST_ROUTE, "/projects/([^/]+)/merge_requests/([^/]+)", this::getMergeRequest));
+        routes.add(new Route(DISCUSSIONS_ROUTE, "/projects/([^/]+)/merge_requests/([^/]+)/discussions",
+                this::getDiscussions));
+        routes.add(new Route(DRAFT_NOTES_ROUTE, "/projects/([^/]+)/merge_requests/([^/]+)/draft_notes",
+                this::getDraftNotes));
+        routes.add(new Route(CREATE_DRAFT_NOTE_ROUTE, "/projects/([^/]+)/merge_requests/([^/]+)/draft_notes",
+                this::createDraftNote));
+        routes.add(new Route(BULK_PUBLISH_ROUTE, "/projects/([^/]+)/merge_requests/([^/]+)/draft_notes/bulk_publish",
+                this::bulkPublish));
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "gitlab-api-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), BACKLOG);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return base URL to use as {@code sonar.gitlab.url}.
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delay every response by the given time.
+     */
+    GitLabApiStub latency(long duration, TimeUnit unit) {
+        this.latencyMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Delay responses about the given commit, in addition to {@link #latency}.
+     */
+    GitLabApiStub delay(String sha, long duration, TimeUnit unit) {
+        commitDelays.put(sha, unit.toMillis(duration));
+        return this;
+    }
+
+    /**
+     * Answer {@code 429 Too Many Requests} to every n-th request, 0 disables rate limiting.
+     */
+    GitLabApiStub rateLimitEvery(int requests) {
+        this.rateLimitEvery = requests;
+        return this;
+    }
+
+    /**
+     * Answer every page of list endpoints with the first one and no pagination headers, like a proxy dropping the
+     * query string.
+     */
+    GitLabApiStub ignorePages() {
+        this.ignorePages = true;
+        return this;
+    }
+
+    /**
+     * Default page size of list endpoints when {@code per_page} is not given.
+     */
+    GitLabApiStub perPage(int perPage) {
+        this.perPage = perPage;
+        return this;
+    }
+
+    GitLabApiStub addProject(int id, String pathWithNamespace) {
+        Map<String, Object> project = new LinkedHashMap<>();
+        project.put("id", id);
+        project.put("name", pathWithNamespace.substring(pathWithNamespace.lastIndexOf('/') + 1));
+        project.put("path_with_namespace", pathWithNamespace);
+        project.put("name_with_namespace", pathWithNamespace.replace("/", " / "));
+        project.put("web_url", url() + "/" + pathWithNamespace);
+        project.put("http_url_to_repo", url() + "/" + pathWithNamespace + ".git");
+        project.put("ssh_url_to_repo", "git@127.0.0.1:" + pathWithNamespace + ".git");
+        projects.put(String.valueOf(id), project);
+        projects.put(pathWithNamespace, project);
+        return this;
+    }
+
+    GitLabApiStub addCommit(String sha, String authorEmail) {
+        return addCommit(sha, authorEmail, null);
+    }
+
+    GitLabApiStub addCommit(String sha, String authorEmail, @Nullable String parentSha) {
+        commits.put(sha, new Commit(sha, authorEmail, parentSha));
+        return this;
+    }
+
+    GitLabApiStub addDiff(String sha, String path, String diff) {
+        Map<String, Object> commitDiff = new LinkedHashMap<>();
+        commitDiff.put("old_path", path);
+        commitDiff.put("new_path", path);
+        commitDiff.put("a_mode", "100644");
+        commitDiff.put("b_mode", "100644");
+        commitDiff.put("diff", diff);
+        commitDiff.put("new_file", false);
+        commitDiff.put("renamed_file", false);
+        commitDiff.put("deleted_file", false);
+        commit(sha).diffs.add(commitDiff);
+        return this;
+    }
+
+    /**
+     * Mark the diff of {@code path} in the given commit as the rename of {@code oldPath}.
+     */
+    @SuppressWarnings("unchecked")
+    GitLabApiStub renameFile(String sha, String oldPath, String path) {
+        for (Map<String, Object> diff : commit(sha).diffs) {
+            if (path.equals(diff.get("new_path"))) {
+                diff.put("old_path", oldPath);
+                diff.put("renamed_file", true);
+            }
+        }
+        renamedPaths.put(path, oldPath);
+        return this;
+    }
+
+    GitLabApiStub addComment(String sha, String path, int line, String note) {
+        commit(sha).comments.add(comment(note, path, String.valueOf(line), "new"));
+        return this;
+    }
+
+    GitLabApiStub addUser(String username, String email) {
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("id", users.size() + 1);
+        user.put("username", username);
+        user.put("email", email);
+        user.put("name", username);
+        user.put("state", "active");
+        users.add(user);
+        return this;
+    }
+
+    GitLabApiStub addMergeRequest(String iid, String baseSha, String headSha) {
+        mergeRequests.put(iid, new MergeRequest(iid, baseSha, headSha));
+        return this;
+    }
+
+    /**
+     * Add a published note on the diff of a merge request, in its own discussion.
+     */
+    GitLabApiStub addMergeRequestNote(String iid, String path, int line, String body) {
+        mergeRequest(iid).discussions.add(discussion(note(body, path, line)));
+        return this;
+    }
+
+    /**
+     * Add a draft note of the user, left unpublished, on a line of the diff or outside of the diff if {@code path}
+     * is {@code null}.
+     */
+    GitLabApiStub addDraftNote(String iid, @Nullable String path, int line, String body) {
+        MergeRequest mergeRequest = mergeRequest(iid);
+        Map<String, Object> draft = new LinkedHashMap<>();
+        draft.put("id", mergeRequest.drafts.size() + 1);
+        draft.put("note", body);
+        if (path != null) {
+            Map<String, Object> position = new LinkedHashMap<>();
+            position.put("position_type", "text");
+            position.put("head_sha", mergeRequest.headSha);
+            position.put("old_path", renamedPaths.getOrDefault(path, path));
+            position.put("new_path", path);
+            position.put("new_line", line);
+            draft.put("position", position);
+        }
+        mergeRequest.drafts.add(draft);
+        return this;
+    }
+
+    List<Map<String, Object>> draftNotes(String iid) {
+        return Collections.unmodifiableList(mergeRequest(iid).drafts);
+    }
+
+    List<Map<String, Object>> discussions(String iid) {
+        return Collections.unmodifiableList(mergeRequest(iid).discussions);
+    }
+
+    List<Map<String, Object>> comments(String sha) {
+        return Collections.unmodifiableList(commit(sha).comments);
+    }
+
+    List<Map<String, Object>> statuses(String sha) {
+        return Collections.unmodifiableList(commit(sha).statuses);
+    }
+
+    int requestCount(String route) {
+        AtomicInteger count = requestCounts.get(route);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return request count by route, sorted by route.
+     */
+    Map<String, Integer> requestCounts() {
+        Map<String, Integer> result = new TreeMap<>();
+        requestCounts.forEach((route, count) -> result.put(route, count.get()));
+        return result;
+    }
+
+    /**
+     * @return prefixes of the API versions requested, e.g. {@code /api/v4}.
+     */
+    Set<String> apiVersions() {
+        return Collections.unmodifiableSet(apiVersions);
+    }
+
+    int totalRequests() {
+        return requestSequence.get();
+    }
+
+    int rateLimitedRequests() {
+        return rateLimited.get();
+    }
+
+    /**
+     * @return number of client connections the requests were received on.
+     */
+    int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return highest number of requests handled at the same time.
+     */
+    int peakConcurrentRequests() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * @return number of conditional requests answered with {@code 304 Not Modified}.
+     */
+    int notModifiedCount() {
+        return notModified.get();
+    }
+
+    void resetCounts() {
+        requestCounts.clear();
+        requestSequence.set(0);
+        rateLimited.set(0);
+        connections.clear();
+        notModified.set(0);
+        peakInFlight.set(0);
+        apiVersions.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private Commit commit(String sha) {
+        Commit commit = commits.get(sha);
+        if (commit == null) {
+            throw new IllegalArgumentException("Unknown commit " + sha);
+        }
+        return commit;
+    }
+
+    private MergeRequest mergeRequest(String iid) {
+        MergeRequest mergeRequest = mergeRequests.get(iid);
+        if (mergeRequest == null) {
+            throw new IllegalArgumentException("Unknown merge request " + iid);
+        }
+        return mergeRequest;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            connections.add(exchange.getRemoteAddress());
+            String path = exchange.getRequestURI().getRawPath();
+            Map<String, String> parameters = parameters(exchange);
+            Map<String, Object> body = body(exchange);
+            body.forEach((key, value) -> {
+                if (value != null) {
+                    parameters.put(key, String.valueOf(value));
+                }
+            });
+            Request request = null;
+            Matcher api = API_PREFIX.matcher(path);
+            if (api.matches()) {
+                apiVersions.add(api.group(1));
+                for (Route route : routes) {
+                    request = route.match(exchange.getRequestMethod(), api.group(1), api.group(2), parameters, body);
+                    if (request != null) {
+                        break;
+                    }
+                }
+            }
+            if (request != null && request.route.name.contains("draft_notes") && !"/api/v4".equals(request.prefix)) {
+                // Not part of API v3
+                request = null;
+            }
+            String route = request != null ? request.route.name : exchange.getRequestMethod() + " " + path;
+            requestCounts.computeIfAbsent(route, k -> new AtomicInteger()).incrementAndGet();
+            int sequence = requestSequence.incrementAndGet();
+
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (request != null && request.route.name.contains(":sha")) {
+                Thread.sleep(commitDelays.getOrDefault(request.group(2), 0L));
+            }
+            if (rateLimitEvery > 0 && sequence % rateLimitEvery == 0) {
+                rateLimited.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, Collections.singletonMap("message", "429 Too Many Requests"));
+            } else if (request == null) {
+                respond(exchange, 404, Collections.singletonMap("message", "404 Not found"));
+            } else {
+                request.route.handler.handle(exchange, request);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 404, Collections.singletonMap("message", e.getMessage()));
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void getProjects(HttpExchange exchange, Request request) throws IOException {
+        String search = request.parameters.getOrDefault("search", "").toLowerCase(Locale.ENGLISH);
+        Map<Integer, Object> distinct = new TreeMap<>();
+        projects.forEach((key, project) -> {
+            if (key.equals(String.valueOf(project.get("id")))
+                    && (project.get("name").toString().toLowerCase(Locale.ENGLISH).contains(search)
+                    || project.get("path_with_namespace").toString().toLowerCase(Locale.ENGLISH).contains(search))) {
+                distinct.put((Integer) project.get("id"), project);
+            }
+        });
+        respondPage(exchange, request, new ArrayList<>(distinct.values()));
+    }
+
+    private void getProject(HttpExchange exchange, Request request) throws IOException {
+        Map<String, Object> project = projects.get(request.group(1));
+        if (project == null) {
+            respond(exchange, 404, Collections.singletonMap("message", "404 Project Not Found"));
+        } else {
+            respond(exchange, 200, project);
+        }
+    }
+
+    private void getCommit(HttpExchange exchange, Request request) throws IOException {
+        Commit commit = commit(request.group(2));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", commit.sha);
+        result.put("short_id", commit.sha.substring(0, Math.min(8, commit.sha.length())));
+        result.put("title", "Commit " + commit.sha);
+        result.put("author_name", commit.authorEmail);
+        result.put("author_email", commit.authorEmail);
+        result.put("parent_ids", commit.parentSha == null ? Collections.emptyList()
+                : Collections.singletonList(commit.parentSha));
+        respond(exchange, 200, result);
+    }
+
+    /**
+     * Combined diff of the commits reachable from {@code to} and not from {@code from}: the diff of a path is the one
+     * of the newest commit that touched it, enough for commits that each add whole files.
+     */
+    private void compare(HttpExchange exchange, Request request) throws IOException {
+        String from = request.parameters.get("from");
+        List<Object> commitsInRange = new ArrayList<>();
+        Map<Object, Map<String, Object>> diffsByPath = new LinkedHashMap<>();
+        for (Commit commit = commit(request.parameters.get("to")); commit != null && !commit.sha.equals(from);
+             commit = commit.parentSha == null ? null : commits.get(commit.parentSha)) {
+            commitsInRange.add(Collections.singletonMap("id", commit.sha));
+            commit.diffs.forEach(d -> diffsByPath.putIfAbsent(d.get("new_path"), d));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("commit", commitsInRange.isEmpty() ? null : commitsInRange.get(0));
+        result.put("commits", commitsInRange);
+        result.put("diffs", new ArrayList<>(diffsByPath.values()));
+        result.put("compare_timeout", false);
+        result.put("compare_same_ref", commitsInRange.isEmpty());
+        respond(exchange, 200, result);
+    }
+
+    private void getDiff(HttpExchange exchange, Request request) throws IOException {
+        respondPage(exchange, request, commit(request.group(2)).diffs);
+    }
+
+    private void getComments(HttpExchange exchange, Request request) throws IOException {
+        respondPage(exchange, request, commit(request.group(2)).comments);
+    }
+
+    private void createComment(HttpExchange exchange, Request request) throws IOException {
+        Map<String, Object> comment = comment(request.parameters.get("note"), request.parameters.get("path"),
+                request.parameters.get("line"), request.parameters.get("line_type"));
+        commit(request.group(2)).comments.add(comment);
+        respond(exchange, 201, comment);
+    }
+
+    private void getStatuses(HttpExchange exchange, Request request) throws IOException {
+        respondPage(exchange, request, commit(request.group(2)).statuses);
+    }
+
+    private void createStatus(HttpExchange exchange, Request request) throws IOException {
+        Commit commit = commit(request.group(2));
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", commit.statuses.size() + 1);
+        status.put("sha", commit.sha);
+        status.put("ref", request.parameters.get("ref"));
+        status.put("status", request.parameters.get("state"));
+        status.put("name", request.parameters.get("name"));
+        status.put("target_url", request.parameters.get("target_url"));
+        status.put("description", request.parameters.get("description"));
+        commit.statuses.add(status);
+        respond(exchange, 201, status);
+    }
+
+    private void getUsers(HttpExchange exchange, Request request) throws IOException {
+        String search = request.parameters.getOrDefault("search", "");
+        List<Object> result = new ArrayList<>();
+        for (Map<String, Object> user : users) {
+            if (String.valueOf(user.get("username")).contains(search)
+                    || String.valueOf(user.get("email")).equals(search)) {
+                result.add(user);
+            }
+        }
+        respondPage(exchange, request, result);
+    }
+
+    private void getMergeRequest(HttpExchange exchange, Request request) throws IOException {
+        MergeRequest mergeRequest = mergeRequest(request.group(2));
+        Map<String, Object> diffRefs = new LinkedHashMap<>();
+        diffRefs.put("base_sha", mergeRequest.baseSha);
+        diffRefs.put("start_sha", mergeRequest.baseSha);
+        diffRefs.put("head_sha", mergeRequest.headSha);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("iid", Integer.valueOf(mergeRequest.iid));
+        result.put("state", "opened");
+        result.put("sha", mergeRequest.headSha);
+        result.put("diff_refs", diffRefs);
+        respond(exchange, 200, result);
+    }
+
+    private void getDiscussions(HttpExchange exchange, Request request) throws IOException {
+        respondPage(exchange, request, mergeRequest(request.group(2)).discussions);
+    }
+
+    private void getDraftNotes(HttpExchange exchange, Request request) throws IOException {
+        respondPage(exchange, request, mergeRequest(request.group(2)).drafts);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createDraftNote(HttpExchange exchange, Request request) throws IOException {
+        MergeRequest mergeRequest = mergeRequest(request.group(2));
+        Object position = request.body.get("position");
+        if (position instanceof Map && !mergeRequest.headSha.equals(((Map<String, Object>) position).get("head_sha"))) {
+            respond(exchange, 400, Collections.singletonMap("message", "400 Bad request - position is outdated"));
+            return;
+        }
+        if (position instanceof Map) {
+            Object path = ((Map<String, Object>) position).get("new_path");
+            if (!renamedPaths.getOrDefault(path, String.valueOf(path))
+                             .equals(((Map<String, Object>) position).get("old_path"))) {
+                respond(exchange, 400, Collections.singletonMap("message", "400 Bad request - line_code must be a "
+                        + "valid line code"));
+                return;
+            }
+        }
+        Map<String, Object> draft = new LinkedHashMap<>();
+        draft.put("id", mergeRequest.drafts.size() + 1);
+        draft.put("note", request.body.get("note"));
+        draft.put("position", position);
+        mergeRequest.drafts.add(draft);
+        respond(exchange, 201, draft);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bulkPublish(HttpExchange exchange, Request request) throws IOException {
+        MergeRequest mergeRequest = mergeRequest(request.group(2));
+        synchronized (mergeRequest) {
+            for (Map<String, Object> draft : mergeRequest.drafts) {
+                Map<String, Object> position = (Map<String, Object>) draft.get("position");
+                mergeRequest.discussions.add(discussion(position == null
+                        ? note((String) draft.get("note"), null, null)
+                        : note((String) draft.get("note"), (String) position.get("new_path"),
+                                (Integer) position.get("new_line"))));
+            }
+            mergeRequest.drafts.clear();
+        }
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    private void respondPage(HttpExchange exchange, Request request, List<?> items) throws IOException {
+        if (ignorePages) {
+            respond(exchange, 200, new ArrayList<>(items.subList(0, Math.min(items.size(), perPage))));
+            return;
+        }
+        int page = Math.max(1, intParameter(request, "page", 1));
+        int size = Math.min(MAX_PER_PAGE, Math.max(1, intParameter(request, "per_page", perPage)));
+        int totalPages = Math.max(1, (items.size() + size - 1) / size);
+        int from = Math.min(items.size(), (page - 1) * size);
+        int to = Math.min(items.size(), from + size);
+
+        exchange.getResponseHeaders().add("X-Page", String.valueOf(page));
+        exchange.getResponseHeaders().add("X-Per-Page", String.valueOf(size));
+        exchange.getResponseHeaders().add("X-Total", String.valueOf(items.size()));
+        exchange.getResponseHeaders().add("X-Total-Pages", String.valueOf(totalPages));
+        exchange.getResponseHeaders().add("X-Next-Page", page < totalPages ? String.valueOf(page + 1) : "");
+        if (page < totalPages) {
+            exchange.getResponseHeaders().add("Link", "<" + url() + request.prefix + request.path + "?page=" + (page + 1)
+                    + "&per_page=" + size + ">; rel=\"next\"");
+        }
+        respond(exchange, 200, new ArrayList<>(items.subList(from, to)));
+    }
+
+    private static int intParameter(Request request, String name, int defaultValue) {
+        String value = request.parameters.get(name);
+        try {
+            return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Respond in JSON, gzip compressed when the client accepts it. Successful GET responses have an ETag, and are
+     * not sent again to a request whose {@code If-None-Match} holds it.
+     */
+    private void respond(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] bytes = GitlabAPI.MAPPER.writeValueAsBytes(body);
+        if ("GET".equals(exchange.getRequestMethod()) && code == 200) {
+            String etag = "W/\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static Map<String, Object> comment(String note, String path, String line, String lineType) {
+        Map<String, Object> author = new LinkedHashMap<>();
+        author.put("id", 1);
+        author.put("username", "sonarqube");
+        Map<String, Object> comment = new LinkedHashMap<>();
+        comment.put("note", note);
+        comment.put("path", path);
+        comment.put("line", line);
+        comment.put("line_type", lineType);
+        comment.put("author", author);
+        return comment;
+    }
+
+    private static Map<String, Object> note(String body, String path, Integer line) {
+        Map<String, Object> note = new LinkedHashMap<>();
+        note.put("body", body);
+        if (path != null) {
+            Map<String, Object> position = new LinkedHashMap<>();
+            position.put("position_type", "text");
+            position.put("new_path", path);
+            position.put("new_line", line);
+            note.put("position", position);
+        }
+        return note;
+    }
+
+    private static Map<String, Object> discussion(Map<String, Object> note) {
+        Map<String, Object> discussion = new LinkedHashMap<>();
+        discussion.put("id", Integer.toHexString(note.hashCode()));
+        discussion.put("notes", Collections.singletonList(note));
+        return discussion;
+    }
+
+    /**
+     * Parameters from the query string, JSON body values are added by {@link #handle(HttpExchange)}.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body.length == 0) {
+            return new HashMap<>();
+        }
+        return GitlabAPI.MAPPER.readValue(body, new TypeReference<Map<String, Object>>() {
+        });
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+    }
+
+    private static byte[] readBody(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+
+        void handle(HttpExchange exchange, Request request) throws IOException;
+    }
+
+    private static class Route {
+
+        private final String name;
+
+        private final String method;
+
+        private final Pattern pattern;
+
+        private final Handler handler;
+
+        private Route(String name, String pattern, Handler handler) {
+            this.name = name;
+            this.method = name.substring(0, name.indexOf(' '));
+            this.pattern = Pattern.compile(pattern);
+            this.handler = handler;
+        }
+
+        private Request match(String requestMethod, String prefix, String path, Map<String, String> parameters,
+                Map<String, Object> body) throws UnsupportedEncodingException {
+            if (!method.equals(requestMethod)) {
+                return null;
+            }
+            Matcher matcher = pattern.matcher(path);
+            if (!matcher.matches()) {
+                return null;
+            }
+            List<String> groups = new ArrayList<>();
+            for (int i = 1; i <= matcher.groupCount(); i++) {
+                groups.add(decode(matcher.group(i)));
+            }
+            return new Request(this, prefix, path, groups, parameters, body);
+        }
+    }
+
+    private static class Request {
+
+        private final Route route;
+
+        private final String prefix;
+
+        private final String path;
+
+        private final List<String> groups;
+
+        private final Map<String, String> parameters;
+
+        private final Map<String, Object> body;
+
+        private Request(Route route, String prefix, String path, List<String> groups, Map<String, String> parameters,
+                Map<String, Object> body) {
+            this.route = route;
+            this.prefix = prefix;
+            this.path = path;
+            this.groups = groups;
+            this.parameters = parameters;
+            this.body = body;
+        }
+
+        private String group(int index) {
+            return groups.get(index - 1);
+        }
+    }
+
+    private static class Commit {
+
+        private final String sha;
+
+        private final String authorEmail;
+
+        private final String parentSha;
+
+        private final List<Map<String, Object>> diffs = new CopyOnWriteArrayList<>();
+
+        private final List<Map<String, Object>> comments = new CopyOnWriteArrayList<>();
+
+        private final List<Map<String, Object>> statuses = new CopyOnWriteArrayList<>();
+
+        private Commit(String sha, String authorEmail, @Nullable String parentSha) {
+            this.sha = sha;
+            this.authorEmail = authorEmail;
+            this.parentSha = parentSha;
+        }
+    }
+
+    private static class MergeRequest {
+
+        private final String iid;
+
+        private final String baseSha;
+
+        private final String headSha;
+
+        private final List<Map<String, Object>> drafts = new CopyOnWriteArrayList<>();
+
+        private final List<Map<String, Object>> discussions = new CopyOnWriteArrayList<>();
+
+        private MergeRequest(String iid, String baseSha, String headSha) {
+            this.iid = iid;
+            this.baseSha = baseSha;
+            this.headSha = headSha;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class GitLabProjectLocatorTest {
+
+    private static final String GITLAB_URL = "https://gitlab.example.com/gitlab/";
+
+    @Test
+    public void namespacePathOfEveryProjectIdForm() {
+        assertThat(GitLabProjectLocator.namespacePath("42", GITLAB_URL)).isEqualTo("42");
+        assertThat(GitLabProjectLocator.namespacePath("group/sub/project", GITLAB_URL))
+                .isEqualTo("group/sub/project");
+        assertThat(GitLabProjectLocator.namespacePath("https://gitlab.example.com/gitlab/group/project", GITLAB_URL))
+                .isEqualTo("group/project");
+        assertThat(GitLabProjectLocator.namespacePath("https://gitlab.example.com/gitlab/group/project.git",
+                GITLAB_URL)).isEqualTo("group/project");
+        assertThat(GitLabProjectLocator.namespacePath("https://mirror.example.com/group/project/-/tree/master",
+                GITLAB_URL)).isEqualTo("group/project");
+        assertThat(GitLabProjectLocator.namespacePath("git@gitlab.example.com:group/project.git", GITLAB_URL))
+                .isEqualTo("group/project");
+        assertThat(GitLabProjectLocator.namespacePath("ssh://git@gitlab.example.com:2222/group/project.git",
+                GITLAB_URL)).isEqualTo("group/project");
+    }
+
+    @Test
+    public void nameWithNamespaceHasNoPath() {
+        assertThat(GitLabProjectLocator.namespacePath("Group / Project", GITLAB_URL)).isNull();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.MapSettings;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+
+public class GlobalReportTest {
+
+    private static final RuleKey RULE_KEY = RuleKey.of("squid", "S1");
+
+    private static final InputFile FOO = new DefaultInputFile("module", "Foo.java");
+
+    private Settings settings;
+
+    private GlobalReport report;
+
+    @Before
+    public void setUp() {
+        settings = new MapSettings();
+        settings.setProperty("sonar.host.url", "http://myserver");
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 2);
+        report = new GlobalReport(new GitLabPluginConfiguration(settings), new MarkDownUtils(settings));
+    }
+
+    @Test
+    public void noIssue() {
+        assertThat(report.hasNewIssues()).isFalse();
+        assertThat(report.toMarkdown()).isEqualTo("SonarQube analysis reported no issues");
+        assertThat(report.getStatus()).isEqualTo("success");
+        assertThat(report.getStatusDescription()).isEqualTo("SonarQube reported: no issues");
+    }
+
+    @Test
+    public void keepMostSevereUnreachableIssues() {
+        report.update(issue(Severity.MINOR, "first minor"), null, false);
+        report.update(issue(Severity.CRITICAL, "critical"), null, false);
+        report.update(issue(Severity.INFO, "reachable"), null, true);
+        report.update(issue(Severity.MINOR, "second minor"), null, false);
+        report.update(issue(Severity.BLOCKER, "blocker"), "http://gitlab/blob/head/Foo.java#L1", false);
+
+        assertThat(report.hasNewIssues()).isTrue();
+        assertThat(report.getStatus()).isEqualTo("failed");
+        assertThat(report.getStatusDescription())
+                .isEqualTo("SonarQube reported: 5 issues, with 1 BLOCKER and 1 CRITICAL");
+        assertThat(report.toMarkdown()).isEqualTo("SonarQube analysis reported 5 issues:\n"
+                + "* :no_entry: 1 blocker\n"
+                + "* :no_entry_sign: 1 critical\n"
+                + "* :arrow_down_small: 2 minor\n"
+                + "* :information_source: 1 info\n"
+                + "\nWatch the comments in this conversation to review them."
+                + "\nNote: the following issues could not be reported as comments because they are located on lines "
+                + "that are not displayed in this commit:\n"
+                + "* :no_entry: [blocker](http://gitlab/blob/head/Foo.java#L1) "
+                + "[:blue_book:](http://myserver/coding_rules#rule_key=squid%3AS1)\n"
+                + "* :no_entry_sign: critical (project:Foo.java) "
+                + "[:blue_book:](http://myserver/coding_rules#rule_key=squid%3AS1)\n"
+                + "* ... 2 more\n");
+    }
+
+    @Test
+    public void concurrentUpdatesReportLikeSequentialOnes() throws Exception {
+        Severity[] severities = Severity.values();
+        List<PostJobIssue> issues = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            issues.add(issue(severities[(i * 7) % severities.length], "issue " + i));
+        }
+        issues.forEach(i -> report.update(i, null, false));
+
+        GlobalReport concurrentReport = new GlobalReport(new GitLabPluginConfiguration(settings),
+                new MarkDownUtils(settings));
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            pool.submit(() -> IntStream.range(0, issues.size()).parallel()
+                                       .forEach(i -> concurrentReport.update(i + 1, issues.get(i), null, false)))
+                .get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(concurrentReport.toMarkdown()).isEqualTo(report.toMarkdown());
+        assertThat(concurrentReport.getStatusDescription()).isEqualTo(report.getStatusDescription());
+    }
+
+    private static PostJobIssue issue(Severity severity, String message) {
+        return new TestIssue(RULE_KEY, FOO, 1, severity, message);
+    }
+}
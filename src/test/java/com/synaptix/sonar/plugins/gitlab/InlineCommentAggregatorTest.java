@@ -0,0 +1,77 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+public class InlineCommentAggregatorTest {
+
+    private static final RuleKey MAGIC_NUMBER = RuleKey.of("squid", "S109");
+
+    private static final RuleKey LINE_LENGTH = RuleKey.of("squid", "S103");
+
+    private final InputFile foo = new DefaultInputFile("module", "src/Foo.java");
+
+    private final InputFile bar = new DefaultInputFile("module", "src/Bar.java");
+
+    @Test
+    public void groupByLine() {
+        InlineCommentAggregator aggregator = new InlineCommentAggregator(InlineCommentAggregator.LINE_MODE, 5);
+        aggregator.add("head", foo, new TestIssue(MAGIC_NUMBER, foo, 3, Severity.MINOR, "magic"));
+        aggregator.add("head", foo, new TestIssue(LINE_LENGTH, foo, 4, Severity.MINOR, "length"));
+        aggregator.add("head", bar, new TestIssue(MAGIC_NUMBER, bar, 3, Severity.MINOR, "magic"));
+        aggregator.add("head", foo, new TestIssue(LINE_LENGTH, foo, 3, Severity.MAJOR, "length"));
+        aggregator.add("parent", foo, new TestIssue(LINE_LENGTH, foo, 3, Severity.MAJOR, "length"));
+
+        List<InlineCommentAggregator.Group> groups = aggregator.groups();
+
+        assertThat(groups).extracting(g -> g.revision() + ":" + g.inputFile().relativePath() + ":" + g.line()
+                + "=" + g.issues().size())
+                          .containsExactly("head:src/Foo.java:3=2", "head:src/Foo.java:4=1", "head:src/Bar.java:3=1",
+                                  "parent:src/Foo.java:3=1");
+        assertThat(groups.get(0).spansSeveralLines()).isFalse();
+    }
+
+    @Test
+    public void groupByRuleWithinWindow() {
+        InlineCommentAggregator aggregator = new InlineCommentAggregator(InlineCommentAggregator.RULE_MODE, 5);
+        for (int line : new int[] {12, 10, 15, 16, 30}) {
+            aggregator.add("head", foo, new TestIssue(MAGIC_NUMBER, foo, line, Severity.MINOR, "magic " + line));
+        }
+        aggregator.add("head", foo, new TestIssue(LINE_LENGTH, foo, 11, Severity.MINOR, "length"));
+
+        List<InlineCommentAggregator.Group> groups = aggregator.groups();
+
+        assertThat(groups).extracting(g -> g.inputFile().relativePath() + ":" + g.line() + "=" + g.issues().size())
+                          .containsExactly("src/Foo.java:10=3", "src/Foo.java:16=1", "src/Foo.java:30=1",
+                                  "src/Foo.java:11=1");
+        assertThat(groups.get(0).issues()).extracting(i -> i.message())
+                                          .containsExactly("magic 10", "magic 12", "magic 15");
+        assertThat(groups.get(0).spansSeveralLines()).isTrue();
+    }
+}
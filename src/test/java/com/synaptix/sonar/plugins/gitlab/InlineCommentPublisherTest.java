@@ -0,0 +1,85 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.MapSettings;
+
+public class InlineCommentPublisherTest {
+
+    @Test
+    public void abandonPendingCommentsWhenClosedBeforeCompletion() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        GitLabApiFacade facade = new GitLabApiFacade(new GitLabPluginConfiguration(new MapSettings())) {
+            @Override
+            void createInlineComment(String revision, InputFile inputFile, Integer line, String body) {
+                calls.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+        InputFile inputFile = new DefaultInputFile("module", "src/Foo.java");
+
+        try (InlineCommentPublisher publisher = new InlineCommentPublisher(facade, 1,
+                GitLabPlugin.PLATFORM_THREADS)) {
+            publisher.submit("head", inputFile, 1, "first");
+            publisher.submit("head", inputFile, 2, "second");
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test(timeout = 10_000)
+    public void releaseWaitingSlotOfRejectedComment() {
+        GitLabApiFacade facade = new GitLabApiFacade(new GitLabPluginConfiguration(new MapSettings()));
+        InputFile inputFile = new DefaultInputFile("module", "src/Foo.java");
+        InlineCommentPublisher publisher = new InlineCommentPublisher(facade, 1, GitLabPlugin.PLATFORM_THREADS);
+        publisher.close();
+
+        // More than the two comments allowed to wait, each rejected without holding a slot
+        int rejected = 0;
+        for (int i = 0; i < 3; i++) {
+            try {
+                publisher.submit("head", inputFile, i, "comment");
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        }
+        assertThat(rejected).isEqualTo(3);
+        assertThat(publisher.awaitCompletion()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class PatchParserTest {
+
+    @Test
+    public void addedLinesWithNewFileLineNumbers() {
+        String patch = "@@ -1,4 +1,5 @@ class Foo {\n"
+                + " first\n"
+                + "-removed\n"
+                + "+added\n"
+                + "+ +plus\n"
+                + " last\n"
+                + "@@ -20 +21,2 @@\n"
+                + "+other\r\n"
+                + "\\ No newline at end of file\n";
+
+        PatchPositions positions = PatchParser.parse(patch);
+
+        assertThat(positions.size()).isEqualTo(3);
+        assertThat(positions.line(0)).isEqualTo(2);
+        assertThat(positions.hash(0)).isEqualTo(ContentHash.of("added"));
+        assertThat(positions.line(1)).isEqualTo(3);
+        assertThat(positions.hash(1)).isEqualTo(ContentHash.of(" +plus"));
+        assertThat(positions.line(2)).isEqualTo(21);
+        assertThat(positions.hash(2)).isEqualTo(ContentHash.of("other"));
+    }
+
+    @Test
+    public void emptyPatch() {
+        assertThat(PatchParser.parse("").size()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidChunkHeader() {
+        PatchParser.parse("@@ -1,a +1 @@\n+added\n");
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PatchPositionsCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temp.newFolder().toPath().resolve("cache");
+    }
+
+    @Test
+    public void roundTrip() {
+        PatchPositionsCache cache = new PatchPositionsCache(directory, 1024 * 1024);
+        Map<String, PatchPositions> positionsByPath = new HashMap<>();
+        PatchPositions positions = new PatchPositions();
+        positions.add(10, ContentHash.of("int a = 1;"));
+        positions.add(3, Long.MIN_VALUE);
+        positions.add(100_000, -1L);
+        positions.setOldPath("src/OldFoo.java");
+        positionsByPath.put("src/Foo.java", positions);
+        positionsByPath.put("src/Empty.java", new PatchPositions());
+
+        assertThat(cache.get(42, "abc123")).isNull();
+        cache.put(42, "abc123", positionsByPath);
+        Map<String, PatchPositions> cached = cache.get(42, "abc123");
+
+        assertThat(cached.keySet()).containsOnly("src/Foo.java", "src/Empty.java");
+        assertThat(cached.get("src/Empty.java").size()).isEqualTo(0);
+        assertThat(cached.get("src/Empty.java").oldPath()).isNull();
+        PatchPositions foo = cached.get("src/Foo.java");
+        assertThat(foo.size()).isEqualTo(3);
+        assertThat(foo.oldPath()).isEqualTo("src/OldFoo.java");
+        assertThat(new int[] {foo.line(0), foo.line(1), foo.line(2)}).containsExactly(10, 3, 100_000);
+        assertThat(new long[] {foo.hash(0), foo.hash(1), foo.hash(2)})
+                .containsExactly(ContentHash.of("int a = 1;"), Long.MIN_VALUE, -1L);
+        assertThat(cache.get(43, "abc123")).isNull();
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    public void ignoreCorruptedEntry() throws IOException {
+        PatchPositionsCache cache = new PatchPositionsCache(directory, 1024 * 1024);
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("42-abc123.bin"), new byte[] {1, 2, 3});
+
+        assertThat(cache.get(42, "abc123")).isNull();
+        assertThat(Files.exists(directory.resolve("42-abc123.bin"))).isFalse();
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        PatchPositions positions = new PatchPositions();
+        for (int i = 1; i <= 100; i++) {
+            positions.add(i, i);
+        }
+        Map<String, PatchPositions> positionsByPath = Collections.singletonMap("src/Foo.java", positions);
+        PatchPositionsCache cache = new PatchPositionsCache(directory, 2500);
+
+        cache.put(42, "first", positionsByPath);
+        cache.put(42, "second", positionsByPath);
+        Files.setLastModifiedTime(directory.resolve("42-first.bin"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(directory.resolve("42-second.bin"), FileTime.fromMillis(2000));
+        cache.get(42, "first");
+        cache.put(42, "third", positionsByPath);
+
+        assertThat(cache.get(42, "first")).isNotNull();
+        assertThat(cache.get(42, "second")).isNull();
+        assertThat(cache.get(42, "third")).isNotNull();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Optional;
+
+import org.junit.Test;
+
+public class RevisionLineIndexTest {
+
+    @Test
+    public void firstMatchingRevisionWins() {
+        RevisionLineIndex index = new RevisionLineIndex();
+        index.add("head", "src/Foo.java", 10, ContentHash.of("int b = 2;"));
+        index.add("parent", "src/Foo.java", 10, ContentHash.of("int a = 1;"));
+        index.add("grand-parent", "src/Foo.java", 10, ContentHash.of("int a = 1;"));
+
+        assertThat(index.getRevision("src/Foo.java", 10, "int a = 1;")).isEqualTo(Optional.of("parent"));
+        assertThat(index.getRevision("src/Foo.java", 10, "int b = 2;")).isEqualTo(Optional.of("head"));
+    }
+
+    @Test
+    public void linesAddedOutOfOrder() {
+        RevisionLineIndex index = new RevisionLineIndex();
+        PatchPositions head = new PatchPositions();
+        head.add(20, ContentHash.of("int c = 3;"));
+        head.add(30, ContentHash.of("int d = 4;"));
+        PatchPositions parent = new PatchPositions();
+        parent.add(10, ContentHash.of("int a = 1;"));
+        parent.add(20, ContentHash.of("int c = 3;"));
+        index.add("head", "src/Foo.java", head);
+        index.add("parent", "src/Foo.java", parent);
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.getRevision("src/Foo.java", 10, "int a = 1;")).isEqualTo(Optional.of("parent"));
+        assertThat(index.getRevision("src/Foo.java", 20, "int c = 3;")).isEqualTo(Optional.of("head"));
+        assertThat(index.getRevision("src/Foo.java", 30, "int d = 4;")).isEqualTo(Optional.of("head"));
+    }
+
+    @Test
+    public void noRevisionForUnknownLine() {
+        RevisionLineIndex index = new RevisionLineIndex();
+        index.add("head", "src/Foo.java", 10, ContentHash.of("int a = 1;"));
+
+        assertThat(index.hasPath("src/Foo.java")).isTrue();
+        assertThat(index.hasPath("src/Bar.java")).isFalse();
+        assertThat(index.paths()).containsOnly("src/Foo.java");
+        assertThat(index.getRevision("src/Foo.java", 11, "int a = 1;")).isEqualTo(Optional.empty());
+        assertThat(index.getRevision("src/Foo.java", 10, "int a = 2;")).isEqualTo(Optional.empty());
+        assertThat(index.getRevision("src/Bar.java", 10, "int a = 1;")).isEqualTo(Optional.empty());
+        assertThat(index.getRevision("src/Foo.java", 10, null)).isEqualTo(Optional.empty());
+    }
+}
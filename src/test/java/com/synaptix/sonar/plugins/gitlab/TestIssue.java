@@ -0,0 +1,90 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2009-2016 Thibaud Leprêtre
+ * thibaud.lepretre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * New issue on a line of a file.
+ */
+class TestIssue implements PostJobIssue {
+
+    private final RuleKey ruleKey;
+
+    private final InputFile inputFile;
+
+    private final int line;
+
+    private final Severity severity;
+
+    private final String message;
+
+    TestIssue(RuleKey ruleKey, InputFile inputFile, int line, Severity severity, String message) {
+        this.ruleKey = ruleKey;
+        this.inputFile = inputFile;
+        this.line = line;
+        this.severity = severity;
+        this.message = message;
+    }
+
+    @Override
+    public String key() {
+        return inputFile.relativePath() + ":" + line + ":" + ruleKey;
+    }
+
+    @Override
+    public RuleKey ruleKey() {
+        return ruleKey;
+    }
+
+    @Override
+    public String componentKey() {
+        return "project:" + inputFile.relativePath();
+    }
+
+    @Override
+    public InputComponent inputComponent() {
+        return inputFile;
+    }
+
+    @Override
+    public Integer line() {
+        return line;
+    }
+
+    @Override
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public Severity severity() {
+        return severity;
+    }
+
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}